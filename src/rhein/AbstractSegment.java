@@ -5,7 +5,6 @@ package rhein;
 
 
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
 
 
 /**
@@ -18,14 +17,14 @@ abstract public class AbstractSegment {
   /**
    *
    */
-  protected final PropertyChangeSupport changes = new PropertyChangeSupport(
+  protected final PropertyChanges changes = new PropertyChanges(
       this);
 
 
   /**
-   *
+   * The row of this segment in {@link #store}.
    */
-  protected int discharge;
+  protected final int id;
 
 
   /**
@@ -34,10 +33,17 @@ abstract public class AbstractSegment {
   protected String name;
 
 
+  /**
+   * Holds the hydraulic state of this segment.
+   */
+  protected final SegmentStore store;
+
+
   /**
    *
    */
   public AbstractSegment() {
+    this(null);
   }
 
 
@@ -46,6 +52,8 @@ abstract public class AbstractSegment {
    */
   public AbstractSegment(String name) {
     this.name = name;
+    this.store = RheinHelper.getSegmentStore();
+    this.id = store.allocate();
   }
 
 
@@ -60,11 +68,28 @@ abstract public class AbstractSegment {
   abstract public void consume(Iterable<AbstractSegment> list);
 
 
+  /**
+   * Same as {@link #consume(Iterable)} but with the inflowing water already
+   * summed up.
+   *
+   * @param inflow
+   */
+  abstract public void consume(int inflow);
+
+
   /**
    * @return
    */
   public int getDischarge() {
-    return discharge;
+    return store.get(SegmentStore.Column.DISCHARGE, id);
+  }
+
+
+  /**
+   * @return the row of this segment in its store
+   */
+  public int getId() {
+    return id;
   }
 
 
@@ -86,7 +111,7 @@ abstract public class AbstractSegment {
    *          the discharge to set
    */
   protected void setDischarge(int discharge) {
-    this.discharge = discharge;
+    store.set(SegmentStore.Column.DISCHARGE, id, discharge);
   }
 
 
@@ -0,0 +1,500 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import cern.jet.stat.Probability;
+
+
+/**
+ * Runs the points of Repast batch sweep files as often as needed to estimate
+ * an outcome to a given precision, using the headless {@link Simulation}.
+ *
+ * Usage:
+ * <code>AdaptiveSweep [-threads n] [-out directory] [-metric totalSpent|overflow] [-precision p] [-confidence c] [-min n] [-max n] sweep.xml ...</code>
+ *
+ * The sweep files are expanded as by {@link SweepRunner}, but the seed is not
+ * taken from them: the replications of every point are run with the seeds
+ * <code>rheinHelperSeed</code>, <code>rheinHelperSeed + 1</code>, and so on,
+ * the same for all points. Each point is first run <code>min</code> times (5
+ * by default). As long as the confidence interval of the mean of the metric is
+ * wider than <code>precision</code> times the mean on either side (0.05 and a
+ * confidence of 0.95 by default), more replications are scheduled for that
+ * point, as many as the current estimate of the variance asks for, but no more
+ * than <code>max</code> in all (100 by default). Points already precise
+ * enough are not run again.
+ *
+ * The metrics are
+ * <ul>
+ * <li><code>totalSpent</code>: the sum of the money spent by all stewards at
+ * the end of a run, i.e. the last <code>Sum of TotalSpent</code> of the
+ * payments data set</li>
+ * <li><code>overflow</code>: the overflow of all segments summed over all
+ * ticks</li>
+ * </ul>
+ *
+ * The directory of the results, by default <code>adaptive</code>, receives
+ * <code>replications.txt</code>, the value of every replication as soon as it
+ * is done, and <code>points.txt</code>, the statistics of every point once all
+ * points are done. A replication that throws an exception, a
+ * {@link StackOverflowError} or a {@link LinkageError} is counted but not
+ * used; any other {@link VirtualMachineError}, e.g. running out of memory, is
+ * counted and ends the sweep, as the JVM is in no state to go on. The logs a
+ * replication is asked for, e.g. by <code>constructionLog</code>, go to files
+ * of its own, with the point number and the seed inserted before the
+ * extension.
+ *
+ * @author mlunzena
+ *
+ */
+public class AdaptiveSweep {
+
+
+  /**
+   * A point of the grid and the replications run so far.
+   */
+  private static class Point {
+
+
+    int number;
+
+
+    Map<String, String> values;
+
+
+    int runs;
+
+
+    int pending;
+
+
+    /**
+     * The number of replications scheduled so far, which also numbers their
+     * seeds.
+     */
+    int scheduled;
+
+
+    double mean;
+
+
+    /**
+     * The sum of the squared differences from the mean.
+     */
+    double m2;
+
+
+    int failures;
+
+
+    void add(double value) {
+      runs++;
+      double delta = value - mean;
+      mean += delta / runs;
+      m2 += delta * (value - mean);
+    }
+
+
+    double getStdDev() {
+      return runs < 2 ? Double.NaN : Math.sqrt(m2 / (runs - 1));
+    }
+
+
+    String describe() {
+      StringBuilder s = new StringBuilder();
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        if (s.length() > 0) {
+          s.append(';');
+        }
+        s.append(entry.getKey()).append('=').append(entry.getValue());
+      }
+      return s.toString();
+    }
+  }
+
+
+  /**
+   * The outcome of a replication.
+   */
+  private static class Result {
+
+
+    Point point;
+
+
+    int seed;
+
+
+    double value;
+
+
+    /**
+     * <code>null</code> unless the run failed.
+     */
+    Throwable failure;
+  }
+
+
+  private static final String SEED = "rheinHelperSeed";
+
+
+  /**
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    AdaptiveSweep sweep = new AdaptiveSweep();
+    int threads = Runtime.getRuntime().availableProcessors();
+    File dir = new File("adaptive");
+    List<File> sweeps = new ArrayList<File>();
+    int min = sweep.min;
+    int max = sweep.max;
+    for (int i = 0; i < args.length; i++) {
+      boolean more = i + 1 < args.length;
+      if (args[i].equals("-threads") && more) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-out") && more) {
+        dir = new File(args[++i]);
+      } else if (args[i].equals("-metric") && more) {
+        sweep.setMetric(args[++i]);
+      } else if (args[i].equals("-precision") && more) {
+        sweep.setPrecision(Double.parseDouble(args[++i]));
+      } else if (args[i].equals("-confidence") && more) {
+        sweep.setConfidence(Double.parseDouble(args[++i]));
+      } else if (args[i].equals("-min") && more) {
+        min = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-max") && more) {
+        max = Integer.parseInt(args[++i]);
+      } else {
+        sweeps.add(new File(args[i]));
+      }
+    }
+    if (sweeps.isEmpty() || !(sweep.metric.equals("totalSpent")
+        || sweep.metric.equals("overflow")) || min > max) {
+      System.err.println("usage: AdaptiveSweep [-threads n] [-out directory] "
+          + "[-metric totalSpent|overflow] [-precision p] [-confidence c] "
+          + "[-min n] [-max n] sweep.xml ...");
+      System.exit(1);
+    }
+
+    // the seeds are ours, so points differing in the seed only are one
+    LinkedHashSet<Map<String, String>> points = new LinkedHashSet<Map<String, String>>();
+    for (File file : sweeps) {
+      for (Map<String, String> point : SweepRunner.expand(file)) {
+        Map<String, String> values = new LinkedHashMap<String, String>(point);
+        String seed = values.remove(SEED);
+        if (points.isEmpty() && seed != null) {
+          sweep.setFirstSeed(new BigDecimal(seed).intValue());
+        }
+        points.add(values);
+      }
+    }
+
+    sweep.setReplications(min, max);
+    int failures = sweep.run(new ArrayList<Map<String, String>>(points), dir,
+        threads);
+    System.exit(failures);
+  }
+
+
+  private double confidence = 0.95;
+
+
+  private int firstSeed;
+
+
+  private int max = 100;
+
+
+  private String metric = "totalSpent";
+
+
+  private int min = 5;
+
+
+  private double precision = 0.05;
+
+
+  /**
+   * Runs the points until their metric is known precisely enough.
+   *
+   * @param points
+   *          the parameters of each point, without the seed
+   * @param dir
+   *          the directory of the results
+   * @param threads
+   * @return the number of replications that failed
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public int run(List<Map<String, String>> points, File dir, int threads)
+      throws IOException, InterruptedException {
+
+    dir.mkdirs();
+    PrintWriter replications = new PrintWriter(new FileWriter(new File(dir,
+        "replications.txt")));
+    replications.println("Point\tSeed\t" + metric);
+
+    List<Point> all = new ArrayList<Point>();
+    for (int i = 0; i < points.size(); i++) {
+      Point point = new Point();
+      point.number = i + 1;
+      point.values = points.get(i);
+      all.add(point);
+    }
+
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    CompletionService<Result> done = new ExecutorCompletionService<Result>(
+        pool);
+    int pending = 0;
+    int total = 0;
+    int failures = 0;
+
+    for (Point point : all) {
+      pending += schedule(done, point, Math.min(max, Math.max(2, min)));
+    }
+
+    try {
+      while (pending > 0) {
+
+        Result result = done.take().get();
+        Point point = result.point;
+        pending--;
+        point.pending--;
+        total++;
+
+        if (result.failure != null) {
+          failures++;
+          point.failures++;
+          System.err.format("point %d seed %d failed: %s\n", point.number,
+              result.seed, result.failure);
+        } else {
+          point.add(result.value);
+          replications.format("%d\t%d\t%s\n", point.number, result.seed,
+              result.value);
+          replications.flush();
+        }
+
+        if (point.pending == 0) {
+          pending += schedule(done, point, getMissing(point));
+        }
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof VirtualMachineError) {
+        System.err.format("%d runs, %d failed, aborted: %s\n", total + 1,
+            failures + 1, e.getCause());
+        throw (VirtualMachineError) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+      replications.close();
+    }
+
+    PrintWriter statistics = new PrintWriter(new FileWriter(new File(dir,
+        "points.txt")));
+    statistics.println("Point\tRuns\tMean\tStdDev\tHalfWidth\tPrecise\t"
+        + "Parameters");
+    for (Point point : all) {
+      double halfWidth = getHalfWidth(point);
+      statistics.format("%d\t%d\t%s\t%s\t%s\t%b\t%s\n", point.number,
+          point.runs, point.mean, point.getStdDev(), halfWidth,
+          isPrecise(point), point.describe());
+    }
+    statistics.close();
+
+    System.out.format("%d points, %d runs in %d s, %d failed\n", all.size(),
+        total, (System.nanoTime() - start) / 1000000000L, failures);
+    return failures;
+  }
+
+
+  /**
+   * @param confidence
+   *          the confidence level of the intervals
+   */
+  public void setConfidence(double confidence) {
+    this.confidence = confidence;
+  }
+
+
+  /**
+   * @param firstSeed
+   *          the seed of the first replication of every point
+   */
+  public void setFirstSeed(int firstSeed) {
+    this.firstSeed = firstSeed;
+  }
+
+
+  /**
+   * @param metric
+   *          <code>totalSpent</code> or <code>overflow</code>
+   */
+  public void setMetric(String metric) {
+    this.metric = metric;
+  }
+
+
+  /**
+   * @param precision
+   *          the half width of the confidence intervals wanted, relative to
+   *          the mean
+   */
+  public void setPrecision(double precision) {
+    this.precision = precision;
+  }
+
+
+  /**
+   * @param min
+   *          the number of replications every point is run at least
+   * @param max
+   *          the number of replications no point is run more often than
+   */
+  public void setReplications(int min, int max) {
+    this.min = min;
+    this.max = max;
+  }
+
+
+  /**
+   * @return the half width of the confidence interval of the mean
+   */
+  private double getHalfWidth(Point point) {
+    if (point.runs < 2) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double t = Probability.studentTInverse(1 - confidence, point.runs - 1);
+    return t * point.getStdDev() / Math.sqrt(point.runs);
+  }
+
+
+  /**
+   * Estimates how many more replications a point needs, from the variance seen
+   * so far.
+   *
+   * @return the number of replications to schedule, 0 if the point is done
+   */
+  private int getMissing(Point point) {
+
+    int tried = point.scheduled;
+    if (isPrecise(point) || tried >= max) {
+      return 0;
+    }
+    if (point.runs < 2) {
+      return Math.min(max - tried, 2 - point.runs);
+    }
+
+    double t = Probability.studentTInverse(1 - confidence, point.runs - 1);
+    double wanted = precision * Math.abs(point.mean);
+    double needed = wanted == 0 ? max : Math.pow(t * point.getStdDev()
+        / wanted, 2);
+    int missing = (int) Math.ceil(needed) - point.runs;
+    return Math.min(max - tried, Math.max(1, missing));
+  }
+
+
+  private boolean isPrecise(Point point) {
+    return point.runs >= Math.max(2, min)
+        && getHalfWidth(point) <= precision * Math.abs(point.mean);
+  }
+
+
+  /**
+   * Runs one replication of a point.
+   */
+  private Result replicate(Point point, int seed) {
+
+    Result result = new Result();
+    result.point = point;
+    result.seed = seed;
+
+    Map<String, String> values = new LinkedHashMap<String, String>(
+        point.values);
+    values.put(SEED, String.valueOf(seed));
+    if (!values.containsKey("traceLevel")) {
+      values.put("traceLevel", Trace.Level.OFF.name());
+    }
+    LogFiles.forRun(values, point.number + "-" + seed);
+
+    try {
+      Simulation simulation = new Simulation(RheinParameters.from(values));
+      final double[] overflow = new double[1];
+      if (metric.equals("overflow")) {
+        simulation.addObserver(new Simulation.Observer() {
+
+
+          @Override
+          public void ticked(Simulation s) {
+            overflow[0] += s.getModel().getSegmentStore().sum(
+                SegmentStore.Column.OVERFLOW);
+          }
+        });
+      }
+      simulation.run();
+
+      if (metric.equals("overflow")) {
+        result.value = overflow[0];
+      } else {
+        long sum = 0;
+        for (Steward steward : simulation.getStewards()) {
+          sum += steward.getTotalSpent();
+        }
+        result.value = sum;
+      }
+    } catch (StackOverflowError e) {
+      result.failure = e;
+    } catch (LinkageError e) {
+      result.failure = e;
+    } catch (Exception e) {
+      result.failure = e;
+    } finally {
+      LogFiles.close(values);
+    }
+    return result;
+  }
+
+
+  /**
+   * Schedules the next replications of a point, each with the next seed.
+   *
+   * @return the number of replications scheduled
+   */
+  private int schedule(CompletionService<Result> done, final Point point,
+      int count) {
+    for (int i = 0; i < count; i++) {
+      final int seed = firstSeed + point.scheduled++;
+      point.pending++;
+      done.submit(new Callable<Result>() {
+
+
+        @Override
+        public Result call() {
+          return replicate(point, seed);
+        }
+      });
+    }
+    return count;
+  }
+}
@@ -3,9 +3,6 @@
  */
 package rhein;
 
-import com.google.common.base.Predicate;
-
-
 /**
  * @author mlunzena
  *
@@ -30,6 +27,14 @@ public class AddRetentionBasin extends FloodProtection {
   }
 
 
+  /**
+   * @return the retention basin to be built
+   */
+  public RetentionBasin getRetentionBasin() {
+    return retentionBasin;
+  }
+
+
   /*
    * (non-Javadoc)
    *
@@ -44,43 +49,32 @@ public class AddRetentionBasin extends FloodProtection {
   }
 
 
-  public long getCost() {
+  @Override
+  protected long computeCost() {
     return retentionBasin.getCost();
   }
 
   /* (non-Javadoc)
-   * @see rhein.FloodProtection#getSubbasinCostEffectiveness()
+   * @see rhein.FloodProtection#computeSubbasinCostEffectiveness()
    */
   @Override
-  public double getSubbasinCostEffectiveness() {
+  protected double computeSubbasinCostEffectiveness() {
 
-    int threatenedLength = segment.getLengthOfDownstream(new Predicate<Segment>() {
-      public boolean apply(Segment s) {
-        return s.getSteward() == payer && s.isThreatened();
-      }
-    });
+    int threatenedLength = segment.getThreatenedLengthOfDownstreamOwnedBy(payer);
 
-    int subbasinLength = segment.getLengthOfDownstream(new Predicate<Segment>() {
-      public boolean apply(Segment s) {
-        return s.getSteward() == payer;
-      }
-    });
+    int subbasinLength = segment.getLengthOfDownstreamOwnedBy(payer);
 
     return getCostEffectiveness() * threatenedLength / subbasinLength;
   }
 
 
   /* (non-Javadoc)
-   * @see rhein.FloodProtection#getWholeBasinCostEffectiveness()
+   * @see rhein.FloodProtection#computeWholeBasinCostEffectiveness()
    */
   @Override
-  public double getWholeBasinCostEffectiveness() {
+  protected double computeWholeBasinCostEffectiveness() {
 
-    int threatenedLength = segment.getLengthOfDownstream(new Predicate<Segment>() {
-      public boolean apply(Segment s) {
-        return s.isThreatened();
-      }
-    });
+    int threatenedLength = segment.getThreatenedLengthOfDownstream();
 
     return getCostEffectiveness() * threatenedLength / segment.getLengthOfDownstream();
   }
@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Picks the most cost effective of the flood protections for a segment.
+ *
+ * The metric of every candidate is evaluated once. Of equally cost effective
+ * candidates the one added to the possible actions of the segment first wins.
+ * Candidates whose metric is not a number cannot be compared to any other and
+ * are neither chosen nor dropped.
+ *
+ * @author mlunzena
+ *
+ */
+public class BestAction {
+
+
+  /**
+   * @param segment
+   *          the segment whose possible actions, in the order they were
+   *          added, break ties
+   * @param candidates
+   *          flood protections for the segment
+   * @param metric
+   * @return the candidates that are inferior to the best one
+   */
+  public static List<FloodProtection> inferior(Segment segment,
+      Collection<?> candidates, FloodProtection.Metric metric) {
+
+    Map<FloodProtection, Integer> positions = new IdentityHashMap<FloodProtection, Integer>();
+    for (FloodProtection f : segment.getPossibleActions()) {
+      if (!positions.containsKey(f)) {
+        positions.put(f, positions.size());
+      }
+    }
+
+    List<FloodProtection> comparable = new ArrayList<FloodProtection>(
+        candidates.size());
+
+    FloodProtection best = null;
+    double bestValue = 0;
+    int bestPosition = 0;
+
+    for (Object o : candidates) {
+
+      FloodProtection f = (FloodProtection) o;
+      double value = metric.evaluate(f);
+      if (Double.isNaN(value)) {
+        continue;
+      }
+      comparable.add(f);
+
+      Integer p = positions.get(f);
+      int position = p == null ? Integer.MAX_VALUE : p;
+      if (best == null || value > bestValue
+          || (value == bestValue && position < bestPosition)) {
+        best = f;
+        bestValue = value;
+        bestPosition = position;
+      }
+    }
+
+    List<FloodProtection> inferior = new ArrayList<FloodProtection>(comparable
+        .size());
+    for (FloodProtection f : comparable) {
+      if (f != best) {
+        inferior.add(f);
+      }
+    }
+    return inferior;
+  }
+
+
+  private BestAction() {
+  }
+}
@@ -0,0 +1,461 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import repast.simphony.space.graph.Network;
+import repast.simphony.space.graph.RepastEdge;
+import cern.jet.random.Normal;
+
+
+/**
+ * The complete state of a {@link Simulation} between two ticks, in a compact
+ * binary form.
+ *
+ * A checkpoint holds the sources, segments and stewards in the order they were
+ * added, the edges of the three networks and the state of all the random
+ * streams of the run. {@link #fork(RheinParameters)} builds a new run from it,
+ * which goes on exactly as the original one would have with the same
+ * parameters. The parameters may differ though, so a prefix shared by several
+ * variants only has to be run once. The random streams go on from where they
+ * were, so the seed cannot differ: a run forked with another
+ * <code>rheinHelperSeed</code> than the checkpoint's is rejected.
+ *
+ * The state of the {@link Convergence} criteria is kept by name, so criteria
+ * that held for some ticks before the checkpoint go on counting in a fork
+ * watching them too.
+ *
+ * The decision engines are not part of a checkpoint, they are rebuilt from the
+ * state of the segments when first used. Neither are the logs of a run.
+ *
+ * @author mlunzena
+ *
+ */
+public class Checkpoint {
+
+
+  private static final int MAGIC = 0x52484350;
+
+
+  private static final int VERSION = 2;
+
+
+  private static final byte SOURCE = 1, SEGMENT = 2, STEWARD = 3;
+
+
+  private static final byte RAISE_DIKE = 1, ADD_RETENTION_BASIN = 2;
+
+
+  /**
+   * Reads a checkpoint written by {@link #save(File)}.
+   *
+   * @param file
+   * @return the checkpoint
+   * @throws IOException
+   */
+  public static Checkpoint load(File file) throws IOException {
+
+    byte[] data = new byte[(int) file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(data);
+    } finally {
+      in.close();
+    }
+
+    Checkpoint checkpoint = new Checkpoint(data);
+    if (data.length < 16 || checkpoint.header(0) != MAGIC
+        || checkpoint.header(4) != VERSION) {
+      throw new IOException(file + " is not a checkpoint");
+    }
+    return checkpoint;
+  }
+
+
+  /**
+   * Takes a checkpoint of a run between two ticks.
+   *
+   * @param simulation
+   * @return the checkpoint
+   */
+  public static Checkpoint take(Simulation simulation) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      write(simulation, new DataOutputStream(bytes));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return new Checkpoint(bytes.toByteArray());
+  }
+
+
+  private static IntRingBuffer readInflows(DataInputStream in)
+      throws IOException {
+    IntRingBuffer inflows = new IntRingBuffer(in.readInt());
+    for (int i = in.readInt(); i > 0; i--) {
+      inflows.add(in.readInt());
+    }
+    return inflows;
+  }
+
+
+  private static void readEdges(DataInputStream in, Object[] nodes,
+      Network<Object> net) throws IOException {
+    for (int i = in.readInt(); i > 0; i--) {
+      net.addEdge(nodes[in.readInt()], nodes[in.readInt()]);
+    }
+  }
+
+
+  private static void readLastBuilt(DataInputStream in, Object[] nodes)
+      throws IOException {
+    for (int i = in.readInt(); i > 0; i--) {
+      Segment segment = (Segment) nodes[in.readInt()];
+      byte kind = in.readByte();
+      Steward payer = (Steward) nodes[in.readInt()];
+      int capacity = in.readInt();
+      if (kind == RAISE_DIKE) {
+        segment.setLastBuilt(new RaiseDike(segment, payer, capacity));
+      } else {
+        segment.setLastBuilt(new AddRetentionBasin(segment, payer,
+            new RetentionBasin(capacity, in.readDouble())));
+      }
+    }
+  }
+
+
+  private static void readStore(DataInputStream in, AbstractSegment segment)
+      throws IOException {
+    for (SegmentStore.Column column : SegmentStore.Column.values()) {
+      segment.store.set(column, segment.id, in.readInt());
+    }
+  }
+
+
+  private static void write(Simulation simulation, DataOutputStream out)
+      throws IOException {
+
+    List<Object> agents = simulation.getAgents();
+    Map<Object, Integer> index = new IdentityHashMap<Object, Integer>();
+    for (int i = 0; i < agents.size(); i++) {
+      index.put(agents.get(i), i);
+    }
+
+    RheinModel model = simulation.getModel();
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(simulation.getTick());
+    out.writeInt(model.getSeed());
+
+    Vector<Normal> normals = new Vector<Normal>();
+    out.writeInt(agents.size());
+    for (Object agent : agents) {
+      if (agent instanceof Source) {
+        Source source = (Source) agent;
+        out.writeByte(SOURCE);
+        out.writeUTF(source.getName());
+        out.writeInt(source.getMeanDischarge());
+        out.writeInt(source.getStdDevDischarge());
+        out.writeInt(source.getDrawn());
+        writeStore(out, source);
+        normals.add(source.getNormal());
+      } else if (agent instanceof Segment) {
+        Segment segment = (Segment) agent;
+        if (!segment.getPossibleActions().isEmpty()) {
+          throw new IllegalStateException("segment " + segment.getName()
+              + " has actions pending, not between two ticks");
+        }
+        out.writeByte(SEGMENT);
+        out.writeUTF(segment.getName());
+        out.writeInt(segment.length);
+        out.writeInt(segment.maxDikeCapacity);
+        out.writeInt(segment.minDischarge);
+        out.writeBoolean(segment.naturalDike);
+        out.writeDouble(segment.safety);
+        out.writeInt(segment.factVersion);
+        writeStore(out, segment);
+        writeInflows(out, segment.lastInflows);
+        out.writeInt(segment.possibleRetentionBasins.size());
+        for (RetentionBasin basin : segment.possibleRetentionBasins) {
+          out.writeInt(basin.getCapacity());
+          out.writeDouble(basin.getCostPerCubicMeterPerSecond());
+        }
+      } else if (agent instanceof Steward) {
+        Steward steward = (Steward) agent;
+        out.writeByte(STEWARD);
+        out.writeUTF(steward.getName());
+        out.writeLong(steward.getBalance());
+        out.writeLong(steward.getTotalSpent());
+      } else {
+        throw new IllegalStateException("cannot checkpoint " + agent);
+      }
+    }
+    writeLastBuilt(out, simulation.getSegments(), index);
+
+    writeEdges(out, simulation.getRiverNetwork(), index);
+    writeEdges(out, simulation.getStewardRiverNetwork(), index);
+    writeEdges(out, simulation.getStewardNetwork(), index);
+
+    ByteArrayOutputStream random = new ByteArrayOutputStream();
+    ObjectOutputStream objects = new ObjectOutputStream(random);
+    objects.writeObject(model.getRandom());
+    objects.writeObject(model.getStreams());
+    objects.writeObject(normals);
+    objects.close();
+    out.writeInt(random.size());
+    random.writeTo(out);
+
+    Convergence convergence = model.getConvergence();
+    out.writeLong(convergence.getLastBalance());
+    Map<String, Integer> held = convergence.getHeld();
+    out.writeInt(held.size());
+    for (Map.Entry<String, Integer> entry : held.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeInt(entry.getValue());
+    }
+
+    out.flush();
+  }
+
+
+  private static void writeEdges(DataOutputStream out, Network<Object> net,
+      Map<Object, Integer> index) throws IOException {
+    out.writeInt(net.numEdges());
+    for (RepastEdge<Object> edge : net.getEdges()) {
+      out.writeInt(index.get(edge.getSource()));
+      out.writeInt(index.get(edge.getTarget()));
+    }
+  }
+
+
+  private static void writeInflows(DataOutputStream out, IntRingBuffer inflows)
+      throws IOException {
+    out.writeInt(inflows.capacity());
+    int[] values = inflows.toArray();
+    out.writeInt(values.length);
+    for (int value : values) {
+      out.writeInt(value);
+    }
+  }
+
+
+  /**
+   * The protections built last are written on their own, as their payers may
+   * come after their segments.
+   */
+  private static void writeLastBuilt(DataOutputStream out,
+      List<Segment> segments, Map<Object, Integer> index) throws IOException {
+    int count = 0;
+    for (Segment segment : segments) {
+      if (segment.lastBuilt != null) {
+        count++;
+      }
+    }
+    out.writeInt(count);
+    for (Segment segment : segments) {
+      FloodProtection built = segment.lastBuilt;
+      if (built == null) {
+        continue;
+      }
+      out.writeInt(index.get(segment));
+      out.writeByte(built instanceof RaiseDike ? RAISE_DIKE
+          : ADD_RETENTION_BASIN);
+      out.writeInt(index.get(built.getPayer()));
+      if (built instanceof AddRetentionBasin) {
+        RetentionBasin basin = ((AddRetentionBasin) built).getRetentionBasin();
+        out.writeInt(basin.getCapacity());
+        out.writeDouble(basin.getCostPerCubicMeterPerSecond());
+      } else {
+        out.writeInt(built.getCapacity());
+      }
+    }
+  }
+
+
+  private static void writeStore(DataOutputStream out, AbstractSegment segment)
+      throws IOException {
+    for (SegmentStore.Column column : SegmentStore.Column.values()) {
+      out.writeInt(segment.store.get(column, segment.id));
+    }
+  }
+
+
+  private final byte[] data;
+
+
+  private Checkpoint(byte[] data) {
+    this.data = data;
+  }
+
+
+  /**
+   * Starts a new run from this checkpoint. The run has a model of its own,
+   * bound to the current thread, and goes on with the next tick.
+   *
+   * @param p
+   *          the parameters of the new run, with the seed of the checkpoint
+   * @return the run
+   * @throws IllegalArgumentException
+   *           if the seed of the parameters is not the seed of the checkpoint
+   */
+  @SuppressWarnings("unchecked")
+  public Simulation fork(RheinParameters p) {
+
+    if (p.getRheinHelperSeed() != getSeed()) {
+      throw new IllegalArgumentException("checkpoint was taken with seed "
+          + getSeed() + ", cannot go on with seed " + p.getRheinHelperSeed());
+    }
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+    RheinModel model = null;
+    boolean done = false;
+    try {
+      in.readInt();
+      in.readInt();
+      int tick = in.readInt();
+      int seed = in.readInt();
+
+      model = new RheinModel(p);
+      Simulation simulation = new Simulation(model, tick);
+
+      Object[] nodes = new Object[in.readInt()];
+      for (int i = 0; i < nodes.length; i++) {
+        byte kind = in.readByte();
+        if (kind == SOURCE) {
+          Source source = new Source(in.readUTF(), in.readInt(), in.readInt());
+          source.restore(in.readInt(), null);
+          readStore(in, source);
+          nodes[i] = source;
+        } else if (kind == SEGMENT) {
+          Segment segment = new Segment(in.readUTF(), in.readInt(), 0, 0);
+          segment.maxDikeCapacity = in.readInt();
+          segment.minDischarge = in.readInt();
+          segment.naturalDike = in.readBoolean();
+          segment.safety = in.readDouble();
+          segment.factVersion = in.readInt();
+          readStore(in, segment);
+          segment.setLastInflows(readInflows(in));
+          for (int b = in.readInt(); b > 0; b--) {
+            segment.possibleRetentionBasins.add(new RetentionBasin(
+                in.readInt(), in.readDouble()));
+          }
+          nodes[i] = segment;
+        } else if (kind == STEWARD) {
+          Steward steward = new Steward(in.readUTF(), in.readLong());
+          steward.setTotalSpent(in.readLong());
+          nodes[i] = steward;
+        } else {
+          throw new IOException("unknown kind of agent " + kind);
+        }
+        simulation.add(nodes[i]);
+      }
+      readLastBuilt(in, nodes);
+
+      readEdges(in, nodes, simulation.getRiverNetwork());
+      readEdges(in, nodes, simulation.getStewardRiverNetwork());
+      readEdges(in, nodes, simulation.getStewardNetwork());
+
+      byte[] random = new byte[in.readInt()];
+      in.readFully(random);
+      ObjectInputStream objects = new ObjectInputStream(
+          new ByteArrayInputStream(random));
+      RandomStream shared = (RandomStream) objects.readObject();
+      Map<String, RandomStream> streams = (Map<String, RandomStream>) objects
+          .readObject();
+      Vector<Normal> normals = (Vector<Normal>) objects.readObject();
+      model.restoreRandom(seed, shared, streams);
+      int s = 0;
+      for (Object node : nodes) {
+        if (node instanceof Source) {
+          Source source = (Source) node;
+          source.restore(source.getDrawn(), normals.get(s++));
+        }
+      }
+
+      long lastBalance = in.readLong();
+      Map<String, Integer> held = new LinkedHashMap<String, Integer>();
+      for (int i = in.readInt(); i > 0; i--) {
+        held.put(in.readUTF(), in.readInt());
+      }
+      model.getConvergence().restore(lastBalance, held);
+
+      simulation.add(new RiverScheduler());
+      simulation.add(new StewardScheduler());
+      simulation.initialize();
+      done = true;
+      return simulation;
+
+    } catch (IOException e) {
+      throw new RuntimeException("corrupt checkpoint", e);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException("corrupt checkpoint", e);
+    } finally {
+      if (!done && model != null) {
+        model.retire();
+      }
+    }
+  }
+
+
+  /**
+   * @return the seed of the run the checkpoint was taken of
+   */
+  public int getSeed() {
+    return header(12);
+  }
+
+
+  /**
+   * @return the last tick run before the checkpoint was taken
+   */
+  public int getTick() {
+    return header(8);
+  }
+
+
+  /**
+   * Writes the checkpoint to a file.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void save(File file) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+  }
+
+
+  /**
+   * @return the size of the checkpoint in bytes
+   */
+  public int size() {
+    return data.length;
+  }
+
+
+  private int header(int offset) {
+    return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+        | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+  }
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.PrintWriter;
+
+
+/**
+ * Records every flood protection built, one line per construction, so that
+ * runs can be compared with each other.
+ *
+ * Nothing is recorded unless the <code>constructionLog</code> parameter names
+ * a file. Each run starts with a line describing it; the runs of a batch are
+ * appended to the same file. Runs going on at the same time should log to
+ * files of their own, as their lines would be mixed up otherwise.
+ *
+ * @author mlunzena
+ *
+ */
+public class ConstructionLog {
+
+
+  /**
+   * <code>null</code> if nothing is recorded.
+   */
+  private final PrintWriter out;
+
+
+  /**
+   * Starts the log of a new run.
+   *
+   * @param p
+   *          the parameters of the run
+   */
+  public ConstructionLog(RheinParameters p) {
+
+    if (p.getConstructionLog().length() == 0) {
+      out = null;
+      return;
+    }
+
+    out = LogFiles.get(p.getConstructionLog(), "construction log");
+    synchronized (out) {
+      out.format("# run seed=%d metric=%s dikes=%b cooperation=%b\n", p
+          .getRheinHelperSeed(), p.getCostEffectivenessMetric(), p
+          .isDikesAllowed(), p.isCooperationAllowed());
+      out.flush();
+    }
+  }
+
+
+  /**
+   * @param steward
+   * @param construct
+   *          the flood protection just built
+   */
+  public void record(Steward steward, FloodProtection construct) {
+    if (out != null) {
+      synchronized (out) {
+        out.format("%.0f\t%s\t%s\n", RheinModel.current().getTick(), steward
+            .getName(), construct);
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,408 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Ends a run before <code>endAt</code> once it has settled down.
+ *
+ * The <code>stopCriteria</code> parameter names the criteria to watch,
+ * separated by commas; by default there are none and every run goes on to
+ * <code>endAt</code>. After every tick, the {@link Aggregates} of the tick are
+ * handed to each criterion, and as soon as one of them has held for
+ * <code>stopAfter</code> ticks in a row, the run ends. The criteria built in
+ * are
+ * <ul>
+ * <li><code>steady</code>: no segment threatened, nothing built and the
+ * balances of the stewards not shrinking</li>
+ * <li><code>unthreatened</code>: no segment threatened</li>
+ * <li><code>idle</code>: nothing built</li>
+ * <li><code>safe</code>: every segment keeps below its safe capacity</li>
+ * </ul>
+ * Any other name is taken as the name of a class implementing
+ * {@link Criterion}.
+ *
+ * Which criterion ended the run, and when, is traced and, if the
+ * <code>stopLog</code> parameter names a file, appended to that file.
+ *
+ * @author mlunzena
+ *
+ */
+public class Convergence {
+
+
+  /**
+   * What happened in one tick, summed up over all segments and stewards.
+   */
+  public static class Aggregates {
+
+
+    private long balance;
+
+
+    private long balanceChange;
+
+
+    private int constructions;
+
+
+    private int maxFreeboard = Integer.MIN_VALUE;
+
+
+    private int minFreeboard = Integer.MAX_VALUE;
+
+
+    private int segments;
+
+
+    private long sumFreeboard;
+
+
+    private int threatened;
+
+
+    private double tick;
+
+
+    /**
+     * @return the sum of the balances of the stewards
+     */
+    public long getBalance() {
+      return balance;
+    }
+
+
+    /**
+     * @return how much the sum of the balances changed in this tick
+     */
+    public long getBalanceChange() {
+      return balanceChange;
+    }
+
+
+    /**
+     * @return the number of flood protections built in this tick
+     */
+    public int getConstructions() {
+      return constructions;
+    }
+
+
+    /**
+     * @return the highest freeboard of all segments
+     */
+    public int getMaxFreeboard() {
+      return maxFreeboard;
+    }
+
+
+    /**
+     * @return the mean freeboard of the segments
+     */
+    public double getMeanFreeboard() {
+      return segments == 0 ? 0 : (double) sumFreeboard / segments;
+    }
+
+
+    /**
+     * @return the lowest freeboard of all segments
+     */
+    public int getMinFreeboard() {
+      return minFreeboard;
+    }
+
+
+    /**
+     * @return the number of segments
+     */
+    public int getSegments() {
+      return segments;
+    }
+
+
+    /**
+     * @return the number of segments threatened
+     */
+    public int getThreatened() {
+      return threatened;
+    }
+
+
+    /**
+     * @return the tick
+     */
+    public double getTick() {
+      return tick;
+    }
+  }
+
+
+  /**
+   * A steady state to watch for.
+   */
+  public interface Criterion {
+
+
+    /**
+     * @param tick
+     *          what happened in the last tick
+     * @return whether the run was in the steady state in that tick
+     */
+    boolean holds(Aggregates tick);
+  }
+
+
+  private static Criterion forName(String name) {
+
+    if (name.equals("steady")) {
+      return new Criterion() {
+
+
+        @Override
+        public boolean holds(Aggregates tick) {
+          return tick.getThreatened() == 0 && tick.getConstructions() == 0
+              && tick.getBalanceChange() >= 0;
+        }
+      };
+    }
+
+    if (name.equals("unthreatened")) {
+      return new Criterion() {
+
+
+        @Override
+        public boolean holds(Aggregates tick) {
+          return tick.getThreatened() == 0;
+        }
+      };
+    }
+
+    if (name.equals("idle")) {
+      return new Criterion() {
+
+
+        @Override
+        public boolean holds(Aggregates tick) {
+          return tick.getConstructions() == 0;
+        }
+      };
+    }
+
+    if (name.equals("safe")) {
+      return new Criterion() {
+
+
+        @Override
+        public boolean holds(Aggregates tick) {
+          return tick.getMaxFreeboard() < 0;
+        }
+      };
+    }
+
+    try {
+      return (Criterion) Class.forName(name).newInstance();
+    } catch (Exception e) {
+      throw new IllegalArgumentException("unknown stop criterion " + name, e);
+    }
+  }
+
+
+  private final int after;
+
+
+  private final List<Criterion> criteria = new ArrayList<Criterion>();
+
+
+  /**
+   * For how many ticks in a row each criterion has held.
+   */
+  private final int[] held;
+
+
+  /**
+   * The sum of the balances after the previous tick, <code>-1</code> before
+   * the first one.
+   */
+  private long lastBalance = -1;
+
+
+  private final List<String> names = new ArrayList<String>();
+
+
+  /**
+   * <code>null</code> if nothing is logged.
+   */
+  private final PrintWriter out;
+
+
+  private final RheinParameters parameters;
+
+
+  /**
+   * The criterion that ended the run, <code>null</code> as long as it goes on.
+   */
+  private String reason;
+
+
+  private double stopTick = Double.NaN;
+
+
+  /**
+   * @param p
+   *          the parameters of the run
+   */
+  public Convergence(RheinParameters p) {
+
+    parameters = p;
+    after = Math.max(1, p.getStopAfter());
+    for (String name : p.getStopCriteria().split(",")) {
+      name = name.trim();
+      if (name.length() > 0) {
+        names.add(name);
+        criteria.add(forName(name));
+      }
+    }
+    held = new int[criteria.size()];
+
+    out = p.getStopLog().length() == 0 ? null : LogFiles.get(p.getStopLog(),
+        "stop log");
+  }
+
+
+  /**
+   * @return for how many ticks in a row each criterion has held, by name
+   */
+  Map<String, Integer> getHeld() {
+    Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+    for (int i = 0; i < held.length; i++) {
+      counts.put(names.get(i), held[i]);
+    }
+    return counts;
+  }
+
+
+  /**
+   * @return the sum of the balances after the last tick, <code>-1</code>
+   *         before the first one
+   */
+  long getLastBalance() {
+    return lastBalance;
+  }
+
+
+  /**
+   * @return the criterion that ended the run, <code>null</code> if it did not
+   *         end early
+   */
+  public String getReason() {
+    return reason;
+  }
+
+
+  /**
+   * @return the last tick of a run that ended early, <code>NaN</code>
+   *         otherwise
+   */
+  public double getStopTick() {
+    return stopTick;
+  }
+
+
+  /**
+   * @return whether the run ended early
+   */
+  public boolean isStopped() {
+    return reason != null;
+  }
+
+
+  /**
+   * Goes on from the state of another run, see {@link Checkpoint}. Criteria
+   * the other run did not watch start from scratch.
+   *
+   * @param lastBalance
+   *          see {@link #getLastBalance()}
+   * @param counts
+   *          see {@link #getHeld()}
+   */
+  void restore(long lastBalance, Map<String, Integer> counts) {
+    this.lastBalance = lastBalance;
+    for (int i = 0; i < held.length; i++) {
+      Integer count = counts.get(names.get(i));
+      held[i] = count == null ? 0 : count;
+    }
+  }
+
+
+  /**
+   * Sums up the tick just done and checks the criteria.
+   *
+   * @param stewards
+   * @return whether the run should end now
+   */
+  public boolean ticked(Iterable<Steward> stewards) {
+
+    if (criteria.isEmpty() || reason != null) {
+      return reason != null;
+    }
+
+    RheinModel model = RheinModel.current();
+    Aggregates tick = new Aggregates();
+    tick.tick = model.getTick();
+
+    for (Object o : model.getRiverNetwork().getNodes()) {
+      if (o instanceof Segment) {
+        Segment segment = (Segment) o;
+        int freeboard = segment.getFreeboard();
+        tick.segments++;
+        tick.sumFreeboard += freeboard;
+        tick.minFreeboard = Math.min(tick.minFreeboard, freeboard);
+        tick.maxFreeboard = Math.max(tick.maxFreeboard, freeboard);
+        if (segment.isThreatened()) {
+          tick.threatened++;
+        }
+        if (segment.getLastBuilt() != null) {
+          tick.constructions++;
+        }
+      }
+    }
+    for (Steward steward : stewards) {
+      tick.balance += steward.getBalance();
+    }
+    tick.balanceChange = lastBalance < 0 ? 0 : tick.balance - lastBalance;
+    lastBalance = tick.balance;
+
+    for (int i = 0; i < criteria.size(); i++) {
+      held[i] = criteria.get(i).holds(tick) ? held[i] + 1 : 0;
+      if (held[i] >= after && reason == null) {
+        reason = names.get(i);
+        stopTick = tick.tick;
+      }
+    }
+
+    if (reason != null) {
+      if (Trace.isInfo()) {
+        Trace.info("stopped at %.0f: %s held for %d ticks\n", stopTick,
+            reason, after);
+      }
+      if (out != null) {
+        synchronized (out) {
+          out.format("%.0f\t%s\tseed=%d metric=%s dikes=%b cooperation=%b\n",
+              stopTick, reason, parameters.getRheinHelperSeed(), parameters
+                  .getCostEffectivenessMetric(), parameters.isDikesAllowed(),
+              parameters.isCooperationAllowed());
+          out.flush();
+        }
+      }
+    }
+    return reason != null;
+  }
+}
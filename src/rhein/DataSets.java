@@ -0,0 +1,70 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.PrintWriter;
+
+
+/**
+ * The data sets the file outputters of the scenario write, i.e.
+ * <code>segments.txt</code> and <code>payments.txt</code>, for runs without
+ * Repast. The columns are the same, one line per segment and tick resp. per
+ * tick.
+ *
+ * @author mlunzena
+ *
+ */
+public class DataSets {
+
+
+  /**
+   * The header of the segments data set.
+   */
+  public static final String SEGMENTS = "Run Number,Tick,Name,Freeboard,addedRetentionBasin,raisedDike";
+
+
+  /**
+   * The header of the payments data set.
+   */
+  public static final String PAYMENTS = "Tick,Run Number,Sum of TotalSpent";
+
+
+  /**
+   * Writes the lines of the current tick.
+   *
+   * @param out
+   * @param run
+   *          the run number
+   * @param simulation
+   */
+  public static void writePayments(PrintWriter out, int run,
+      Simulation simulation) {
+    long sum = 0;
+    for (Steward steward : simulation.getStewards()) {
+      sum += steward.getTotalSpent();
+    }
+    out.format("%d,%d,%d\n", simulation.getTick(), run, sum);
+  }
+
+
+  /**
+   * Writes the lines of the current tick.
+   *
+   * @param out
+   * @param run
+   *          the run number
+   * @param simulation
+   */
+  public static void writeSegments(PrintWriter out, int run,
+      Simulation simulation) {
+    for (Segment segment : simulation.getSegments()) {
+      String built = segment.getLastBuiltClassName();
+      out.format("%d,%d,%s,%d,%d,%d\n", run, simulation.getTick(), segment
+          .getName(), segment.getFreeboard(), built
+          .equals("AddRetentionBasin") ? 1 : 0,
+          built.equals("RaiseDike") ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.List;
+
+
+/**
+ * Makes the decisions of a steward, i.e. which flood protections are possible
+ * and which of them to build.
+ *
+ * There is one engine per steward. {@link DroolsDecisionEngine} runs the rules
+ * of <code>Steward.drl</code>, {@link JavaDecisionEngine} implements the same
+ * rules in plain Java. Which one is used is chosen by the
+ * <code>decisionEngine</code> parameter.
+ *
+ * @author mlunzena
+ *
+ */
+public interface DecisionEngine {
+
+
+  /**
+   * The available engines.
+   */
+  enum Kind {
+    DROOLS, JAVA
+  }
+
+
+  /**
+   * Releases the resources of the engine.
+   */
+  void dispose();
+
+
+  /**
+   * Generates the flood protections the steward could build and drops the ones
+   * violating a norm.
+   *
+   * @return the remaining flood protections
+   */
+  List<FloodProtection> generateActions();
+
+
+  /**
+   * Removes the inferior flood protections from the possible actions of the
+   * segments of the steward.
+   */
+  void selectActions();
+}
@@ -0,0 +1,342 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import repast.simphony.space.graph.Network;
+import repast.simphony.space.projection.ProjectionEvent;
+import repast.simphony.space.projection.ProjectionListener;
+
+
+/**
+ * Answers "how long is the river downstream of this segment" without walking
+ * the river.
+ *
+ * Each segment has at most one downstream segment, so the downstream segments
+ * form a chain. The lengths are summed up along the chains from the mouth
+ * upwards once, per segment for the whole chain and for the segments of the
+ * chain with the same steward. To restrict a sum to another steward, the chain
+ * is followed from one change of stewards to the next until a segment of that
+ * steward is found, which usually is the segment itself.
+ *
+ * Sums over threatened segments are kept per segment as well. They are
+ * recomputed lazily once the {@link SegmentStore} has been written to, i.e.
+ * about once per tick. Everything else is only rebuilt when one of the
+ * networks changes.
+ *
+ * @author mlunzena
+ *
+ */
+public class DownstreamIndex {
+
+
+  /**
+   * Length of the downstream chain of every segment, by id.
+   */
+  private int[] downstream;
+
+
+  /**
+   * Id of the first segment downstream with another steward, -1 if none.
+   */
+  private int[] jump;
+
+
+  /**
+   * Length of every segment, by id.
+   */
+  private int[] length;
+
+
+  /**
+   * Id of the next segment downstream, -1 at the mouth.
+   */
+  private int[] next;
+
+
+  /**
+   * Id of the first segment downstream with the same steward, -1 if none.
+   */
+  private int[] nextOwned;
+
+
+  /**
+   * Length of the segments downstream having the same steward, by id.
+   */
+  private int[] owned;
+
+
+  /**
+   * Steward of every segment, by id.
+   */
+  private Steward[] owner;
+
+
+  private final Network<Object> riverNet;
+
+
+  private Segment[] segments;
+
+
+  private int[] stack;
+
+
+  private final SegmentStore store;
+
+
+  /**
+   * Length of the threatened segments downstream, by id.
+   */
+  private int[] threatened;
+
+
+  /**
+   * Length of the threatened segments downstream having the same steward, by
+   * id.
+   */
+  private int[] threatenedOwned;
+
+
+  /**
+   * Version of {@link #store} the threatened sum of each segment was computed
+   * for.
+   */
+  private int[] threatenedVersion;
+
+
+  /**
+   * @param riverNet
+   * @param stewardRiverNet
+   * @param store
+   */
+  public DownstreamIndex(Network<Object> riverNet,
+      Network<Object> stewardRiverNet, SegmentStore store) {
+
+    this.riverNet = riverNet;
+    this.store = store;
+
+    ProjectionListener<Network<Object>> listener = new ProjectionListener<Network<Object>>() {
+
+
+      @Override
+      public void projectionEventOccurred(ProjectionEvent<Network<Object>> evt) {
+        invalidate();
+      }
+    };
+
+    riverNet.addProjectionListener(listener);
+    stewardRiverNet.addProjectionListener(listener);
+  }
+
+
+  /**
+   * @param segment
+   * @return the length of the segment and all segments downstream of it
+   */
+  public synchronized int getLength(Segment segment) {
+    prepare(segment);
+    return downstream[segment.getId()];
+  }
+
+
+  /**
+   * @param segment
+   * @param steward
+   * @return the length of the segments of the steward from segment downwards
+   */
+  public synchronized int getLengthOwnedBy(Segment segment, Steward steward) {
+    prepare(segment);
+    int id = find(segment.getId(), steward);
+    return id == -1 ? 0 : owned[id];
+  }
+
+
+  /**
+   * @param segment
+   * @return the length of the threatened segments from segment downwards
+   */
+  public synchronized int getThreatenedLength(Segment segment) {
+    prepare(segment);
+    updateThreatened(segment.getId());
+    return threatened[segment.getId()];
+  }
+
+
+  /**
+   * @param segment
+   * @param steward
+   * @return the length of the threatened segments of the steward from segment
+   *         downwards
+   */
+  public synchronized int getThreatenedLengthOwnedBy(Segment segment,
+      Steward steward) {
+    prepare(segment);
+    int id = find(segment.getId(), steward);
+    if (id == -1) {
+      return 0;
+    }
+    updateThreatened(id);
+    return threatenedOwned[id];
+  }
+
+
+  /**
+   * Forgets everything, e.g. after a network or a length changed.
+   */
+  public synchronized void invalidate() {
+    next = null;
+  }
+
+
+  /**
+   * Follows the successors of all the segments of the river network and sums
+   * up the lengths.
+   */
+  private void build() {
+
+    int n = store.size();
+
+    next = new int[n];
+    Arrays.fill(next, -1);
+    jump = new int[n];
+    nextOwned = new int[n];
+    downstream = new int[n];
+    owned = new int[n];
+    length = new int[n];
+    owner = new Steward[n];
+    segments = new Segment[n];
+    stack = new int[n];
+    threatened = new int[n];
+    threatenedOwned = new int[n];
+    threatenedVersion = new int[n];
+    Arrays.fill(threatenedVersion, store.getVersion() - 1);
+
+    for (Object o : riverNet.getNodes()) {
+      if (o instanceof Segment) {
+        add((Segment) o);
+      }
+    }
+
+    for (Segment s : segments) {
+      if (s == null) {
+        continue;
+      }
+      for (Object o : riverNet.getSuccessors(s)) {
+        if (o instanceof Segment) {
+          if (next[s.getId()] != -1) {
+            throw new RuntimeException("Segment " + s
+                + " has more than one successor.");
+          }
+          next[s.getId()] = ((Segment) o).getId();
+        }
+      }
+    }
+
+    // from the mouths upwards
+    boolean[] done = new boolean[n];
+    for (int id = 0; id < n; id++) {
+      if (segments[id] == null) {
+        continue;
+      }
+      int top = 0;
+      for (int i = id; i != -1 && !done[i]; i = next[i]) {
+        stack[top++] = i;
+      }
+      while (top > 0) {
+        int i = stack[--top];
+        int j = next[i];
+
+        if (j == -1) {
+          jump[i] = -1;
+          nextOwned[i] = -1;
+          downstream[i] = length[i];
+        } else {
+          jump[i] = owner[j] != owner[i] ? j : jump[j];
+          nextOwned[i] = find(j, owner[i]);
+          downstream[i] = length[i] + downstream[j];
+        }
+        owned[i] = length[i] + (nextOwned[i] == -1 ? 0 : owned[nextOwned[i]]);
+
+        done[i] = true;
+      }
+    }
+  }
+
+
+  /**
+   * Registers a segment.
+   */
+  private void add(Segment s) {
+    segments[s.getId()] = s;
+    length[s.getId()] = s.getLength();
+    try {
+      owner[s.getId()] = s.getSteward();
+    } catch (NoSuchElementException e) {
+      // no steward, nothing to do
+    }
+  }
+
+
+  /**
+   * @return the first segment of the steward downstream from and including
+   *         <code>id</code>, -1 if there is none
+   */
+  private int find(int id, Steward steward) {
+    int i = id;
+    while (i != -1 && owner[i] != steward) {
+      i = jump[i];
+    }
+    return i;
+  }
+
+
+  /**
+   * Makes sure the index is up to date and covers the segment.
+   */
+  private void prepare(Segment segment) {
+    if (next == null || segment.getId() >= next.length
+        || segments[segment.getId()] != segment) {
+      build();
+      if (segments[segment.getId()] == null) {
+        // not part of the river network
+        add(segment);
+        jump[segment.getId()] = nextOwned[segment.getId()] = -1;
+        downstream[segment.getId()] = owned[segment.getId()] = segment
+            .getLength();
+      }
+    }
+  }
+
+
+  /**
+   * Brings the threatened sums of the segment and its downstream chain up to
+   * date.
+   */
+  private void updateThreatened(int id) {
+
+    int version = store.getVersion();
+
+    int top = 0;
+    for (int i = id; i != -1 && threatenedVersion[i] != version; i = next[i]) {
+      stack[top++] = i;
+    }
+
+    while (top > 0) {
+      int i = stack[--top];
+      int j = next[i];
+      int k = nextOwned[i];
+
+      int own = segments[i].isThreatened() ? length[i] : 0;
+
+      // the segment downstream with the same steward is on the chain and thus
+      // already up to date
+      threatened[i] = own + (j == -1 ? 0 : threatened[j]);
+      threatenedOwned[i] = own + (k == -1 ? 0 : threatenedOwned[k]);
+      threatenedVersion[i] = version;
+    }
+  }
+}
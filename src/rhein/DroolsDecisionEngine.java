@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.FactHandle;
+import org.drools.QueryResult;
+import org.drools.QueryResults;
+import org.drools.RuleBase;
+import org.drools.RuleBaseConfiguration;
+import org.drools.RuleBaseFactory;
+import org.drools.StatefulSession;
+import org.drools.event.AgendaEventListener;
+import org.drools.event.WorkingMemoryEventListener;
+
+
+/**
+ * Runs the rules of <code>Steward.drl</code> in a working memory kept from
+ * tick to tick.
+ *
+ * Instead of building a new session for every decision, the steward and its
+ * segments stay in one session. Before a ruleflow is run, only the segments
+ * the rules could see differently are updated: the threatened ones, the ones
+ * whose threat changed and the ones whose {@link Segment#getFactVersion()}
+ * changed. The flood protections inserted by a ruleflow are retracted again
+ * once it is done.
+ *
+ * @author mlunzena
+ *
+ */
+public class DroolsDecisionEngine implements DecisionEngine {
+
+
+  /**
+   * What the session knows about a segment.
+   */
+  private static class Fact {
+
+
+    FactHandle handle;
+
+
+    boolean threatened;
+
+
+    int version;
+  }
+
+
+  private static RuleBase ruleBase;
+
+
+  /**
+   * @return the rule base, loaded on first use and shared by all the models of
+   *         the JVM, which only read it
+   */
+  public static synchronized RuleBase getRuleBase() {
+    if (ruleBase == null) {
+      ruleBase = loadRuleFile();
+    }
+    return ruleBase;
+  }
+
+
+  /**
+   *
+   */
+  private static RuleBase loadRuleFile() {
+    try {
+
+      ClassLoader classLoader = DroolsDecisionEngine.class.getClassLoader();
+
+      RuleBaseConfiguration ruleBaseConfiguration = new RuleBaseConfiguration(
+          classLoader);
+
+      RuleBase ruleBase = RuleBaseFactory.newRuleBase(ruleBaseConfiguration);
+      ruleBase.addPackage(RuleBaseCache.getPackage(classLoader));
+      return ruleBase;
+
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  private final Map<Segment, Fact> facts = new IdentityHashMap<Segment, Fact>();
+
+
+  /**
+   * Records what the session does, <code>null</code> if nothing is recorded.
+   */
+  private final RuleStatistics.Listener listener;
+
+
+  private final StatefulSession session;
+
+
+  private final Steward steward;
+
+
+  /**
+   * @param steward
+   */
+  public DroolsDecisionEngine(Steward steward) {
+    this.steward = steward;
+    session = getRuleBase().newStatefulSession(false);
+    listener = RheinModel.current().getRuleStatistics().newListener();
+    if (listener != null) {
+      session.addEventListener((AgendaEventListener) listener);
+      session.addEventListener((WorkingMemoryEventListener) listener);
+    }
+    session.insert(steward, false);
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.DecisionEngine#dispose()
+   */
+  @Override
+  public void dispose() {
+    facts.clear();
+    session.dispose();
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.DecisionEngine#generateActions()
+   */
+  @Override
+  public List<FloodProtection> generateActions() {
+    return run("ACTION_GENERATION_RULEFLOW");
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.DecisionEngine#selectActions()
+   */
+  @Override
+  public void selectActions() {
+    run("ACTION_SELECTION_RULEFLOW");
+  }
+
+
+  /**
+   * Brings the segments up to date, starts the ruleflow and fires the rules.
+   *
+   * @param ruleflow
+   *          id of the ruleflow
+   * @return the flood protections in the working memory afterwards, which are
+   *         retracted
+   */
+  private List<FloodProtection> run(String ruleflow) {
+
+    if (listener != null) {
+      listener.begin(ruleflow);
+    }
+
+    synchronize();
+
+    session.startProcess(ruleflow);
+    session.fireAllRules();
+
+    List<FloodProtection> floodProtections = new ArrayList<FloodProtection>();
+    QueryResults results = session.getQueryResults("all floodprotections");
+    for (Iterator<?> it = results.iterator(); it.hasNext();) {
+      QueryResult result = (QueryResult) it.next();
+      floodProtections.add((FloodProtection) result.get("floodprotection"));
+    }
+
+    for (FloodProtection floodProtection : floodProtections) {
+      FactHandle handle = session.getFactHandle(floodProtection);
+      if (handle != null) {
+        session.retract(handle);
+      }
+    }
+
+    if (listener != null) {
+      listener.end();
+    }
+
+    return floodProtections;
+  }
+
+
+  /**
+   * Inserts new segments of the steward, retracts the ones it lost and updates
+   * the ones that changed.
+   */
+  private void synchronize() {
+
+    List<Segment> segments = steward.getSegments();
+
+    for (Segment segment : segments) {
+
+      Fact fact = facts.get(segment);
+      boolean threatened = segment.isThreatened();
+
+      if (fact == null) {
+        fact = new Fact();
+        fact.handle = session.insert(segment, false);
+        facts.put(segment, fact);
+      } else if (threatened || threatened != fact.threatened
+          || segment.getFactVersion() != fact.version) {
+        session.update(fact.handle, segment);
+      }
+
+      fact.threatened = threatened;
+      fact.version = segment.getFactVersion();
+    }
+
+    if (facts.size() != segments.size()) {
+      Map<Segment, Object> current = new IdentityHashMap<Segment, Object>();
+      for (Segment segment : segments) {
+        current.put(segment, segment);
+      }
+      for (Iterator<Map.Entry<Segment, Fact>> it = facts.entrySet().iterator(); it
+          .hasNext();) {
+        Map.Entry<Segment, Fact> entry = it.next();
+        if (!current.containsKey(entry.getKey())) {
+          session.retract(entry.getValue().handle);
+          it.remove();
+        }
+      }
+    }
+  }
+}
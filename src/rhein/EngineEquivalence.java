@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Runs batch sweeps once with each {@link DecisionEngine} and checks that the
+ * same flood protections are built at the same ticks.
+ *
+ * Usage: <code>EngineEquivalence [scenario] [sweep file or directory ...]</code>,
+ * by default the sweeps in <code>batch/rhein</code> and
+ * <code>batch/random</code> of the scenario <code>rhein.rs</code>. Every sweep
+ * is copied with the parameters <code>decisionEngine</code>,
+ * <code>constructionLog</code> and <code>traceLevel</code> set and run by the
+ * Repast batch runner in a JVM of its own, using the class path of this one.
+ * The exit status is the number of sweeps whose construction logs differ.
+ *
+ * @author mlunzena
+ *
+ */
+public class EngineEquivalence {
+
+
+  /**
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    String scenario = args.length > 0 ? args[0] : "rhein.rs";
+    List<File> sweeps = sweeps(args, "batch/rhein", "batch/random");
+
+    File dir = File.createTempFile("equivalence", "");
+    dir.delete();
+    dir.mkdirs();
+
+    int failures = 0;
+    for (File sweep : sweeps) {
+
+      String name = sweep.getParentFile().getName() + "-"
+          + sweep.getName().replace(".xml", "");
+
+      File[] logs = new File[DecisionEngine.Kind.values().length];
+      for (DecisionEngine.Kind kind : DecisionEngine.Kind.values()) {
+        File log = new File(dir, name + "-" + kind + ".log");
+        File params = new File(dir, name + "-" + kind + ".xml");
+        writeSweep(sweep, params, kind, log);
+        runBatch(params, scenario);
+        logs[kind.ordinal()] = log;
+      }
+
+      String difference = compare(logs[0], logs[1]);
+      if (difference == null) {
+        System.out.format("%-30s ok\n", name);
+      } else {
+        System.out.format("%-30s DIFFERENT %s\n", name, difference);
+        failures++;
+      }
+    }
+
+    System.out.format("logs are in %s\n", dir);
+    System.exit(failures);
+  }
+
+
+  /**
+   * @param name
+   * @param value
+   * @return the line of a sweep file setting a constant
+   */
+  static String constant(String name, String value) {
+    return "\t<parameter name=\"" + name
+        + "\" type=\"constant\" constant_type=\"string\" value=\"" + value
+        + "\"/>\n";
+  }
+
+
+  /**
+   * Runs a class of this class path in a JVM of its own and waits for it.
+   *
+   * @param args
+   *          the name of the class and its arguments
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  static void java(String... args) throws IOException, InterruptedException {
+
+    String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+
+    List<String> command = new ArrayList<String>(Arrays.asList(java,
+        "-Xss10M", "-Xmx400M", "-cp", System.getProperty("java.class.path")));
+    command.addAll(Arrays.asList(args));
+    ProcessBuilder builder = new ProcessBuilder(command);
+    builder.redirectErrorStream(true);
+
+    Process process = builder.start();
+    // nothing of interest, but the pipe must not fill up
+    byte[] buffer = new byte[8192];
+    while (process.getInputStream().read(buffer) != -1) {
+    }
+    int status = process.waitFor();
+    if (status != 0) {
+      throw new RuntimeException(args[0] + " " + args[args.length - 1]
+          + " failed with " + status);
+    }
+  }
+
+
+  /**
+   * @param file
+   * @return the lines of the file, none if it does not exist
+   * @throws IOException
+   */
+  static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    if (!file.exists()) {
+      return lines;
+    }
+    BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      for (String line = reader.readLine(); line != null; line = reader
+          .readLine()) {
+        lines.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+
+
+  /**
+   * @param args
+   *          the scenario followed by sweep files or directories
+   * @param defaults
+   *          the sweep files or directories if none are named
+   * @return the sweep files named
+   */
+  static List<File> sweeps(String[] args, String... defaults) {
+    List<File> sweeps = new ArrayList<File>();
+    String[] names = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+        : defaults;
+    for (String name : names) {
+      File f = new File(name);
+      if (f.isDirectory()) {
+        File[] files = f.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.getName().endsWith(".xml")) {
+            sweeps.add(file);
+          }
+        }
+      } else {
+        sweeps.add(f);
+      }
+    }
+    return sweeps;
+  }
+
+
+  /**
+   * @return a description of the first difference, <code>null</code> if the
+   *         files are equal
+   */
+  private static String compare(File a, File b) throws IOException {
+
+    List<String> linesA = readLines(a);
+    List<String> linesB = readLines(b);
+
+    for (int i = 0; i < Math.max(linesA.size(), linesB.size()); i++) {
+      String lineA = i < linesA.size() ? linesA.get(i) : "<end>";
+      String lineB = i < linesB.size() ? linesB.get(i) : "<end>";
+      if (!lineA.equals(lineB)) {
+        return "at line " + (i + 1) + ": '" + lineA + "' vs. '" + lineB + "'";
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Runs the Repast batch runner on a sweep and waits for it.
+   */
+  private static void runBatch(File params, String scenario)
+      throws IOException, InterruptedException {
+    java("repast.simphony.batch.BatchMain", "-params", params.getPath(),
+        scenario);
+  }
+
+
+  /**
+   * Copies a sweep, setting the parameters needed for the comparison.
+   */
+  private static void writeSweep(File sweep, File params,
+      DecisionEngine.Kind kind, File log) throws IOException {
+
+    StringBuilder xml = new StringBuilder();
+    for (String line : readLines(sweep)) {
+      if (line.contains("name=\"decisionEngine\"")
+          || line.contains("name=\"constructionLog\"")
+          || line.contains("name=\"traceLevel\"")) {
+        continue;
+      }
+      xml.append(line).append('\n');
+      if (line.trim().startsWith("<sweep")) {
+        xml.append(constant("decisionEngine", kind.name()));
+        xml.append(constant("constructionLog", log.getPath()));
+        xml.append(constant("traceLevel", Trace.Level.OFF.name()));
+      }
+    }
+
+    log.delete();
+    Writer out = new FileWriter(params);
+    try {
+      out.write(xml.toString());
+    } finally {
+      out.close();
+    }
+  }
+
+}
@@ -4,7 +4,6 @@
 package rhein;
 
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
 
 /**
  * @author mlunzena
@@ -26,8 +25,30 @@ abstract public class FloodProtection {
 		public String method() {
 			return this.method;
 		}
+
+		/**
+		 * @param f
+		 * @return the cost effectiveness of the flood protection by this
+		 *         metric
+		 */
+		public double evaluate(FloodProtection f) {
+			switch (this) {
+			case SUBBASIN:
+				return f.getSubbasinCostEffectiveness();
+			case WHOLE:
+				return f.getWholeBasinCostEffectiveness();
+			default:
+				return f.getCostEffectiveness();
+			}
+		}
 	}
 
+	/**
+	 * Bits of {@link #memoized}.
+	 */
+	private static final int COST = 1, COST_EFFECTIVENESS = 2, SUBBASIN = 4,
+			WHOLE = 8;
+
 	/**
      *
      */
@@ -36,7 +57,7 @@ abstract public class FloodProtection {
 	/**
      *
      */
-	protected final PropertyChangeSupport changes = new PropertyChangeSupport(
+	protected final PropertyChanges changes = new PropertyChanges(
 			this);
 
 	/**
@@ -49,6 +70,27 @@ abstract public class FloodProtection {
      */
 	protected Segment segment;
 
+	/**
+	 * The memoized values, valid as far as flagged in {@link #memoized}.
+	 */
+	private long cost;
+
+	private double costEffectiveness;
+
+	private double subbasinCostEffectiveness;
+
+	private double wholeBasinCostEffectiveness;
+
+	/**
+	 * Which of the values are memoized.
+	 */
+	private int memoized;
+
+	/**
+	 * The version of the segment store the values were computed in.
+	 */
+	private int memoStoreVersion;
+
 	/**
      *
      */
@@ -85,20 +127,69 @@ abstract public class FloodProtection {
 	 * @return the capacity per cost
 	 */
 	public double getCostEffectiveness() {
-		return ((double) capacity) / ((double) getCost());
+		if (!isMemoized(COST_EFFECTIVENESS)) {
+			costEffectiveness = ((double) capacity) / ((double) getCost());
+			memoized |= COST_EFFECTIVENESS;
+		}
+		return costEffectiveness;
 	}
 
 	/**
 	 * @return
 	 */
-	abstract public double getSubbasinCostEffectiveness();
+	public double getSubbasinCostEffectiveness() {
+		if (!isMemoized(SUBBASIN)) {
+			subbasinCostEffectiveness = computeSubbasinCostEffectiveness();
+			memoized |= SUBBASIN;
+		}
+		return subbasinCostEffectiveness;
+	}
 
-	abstract public double getWholeBasinCostEffectiveness();
+	public double getWholeBasinCostEffectiveness() {
+		if (!isMemoized(WHOLE)) {
+			wholeBasinCostEffectiveness = computeWholeBasinCostEffectiveness();
+			memoized |= WHOLE;
+		}
+		return wholeBasinCostEffectiveness;
+	}
 
 	/**
 	 * @return
 	 */
-	abstract public long getCost();
+	public long getCost() {
+		if (!isMemoized(COST)) {
+			cost = computeCost();
+			memoized |= COST;
+		}
+		return cost;
+	}
+
+	abstract protected double computeSubbasinCostEffectiveness();
+
+	abstract protected double computeWholeBasinCostEffectiveness();
+
+	abstract protected long computeCost();
+
+	/**
+	 * The values are computed once and then reused until the segments change.
+	 * The river phase bumps the version of the store once per tick, see
+	 * {@link SegmentStore#endPhase()}, and so does every construction, so the
+	 * version also serves as the epoch of the tick: changes of the parameters
+	 * or of the river networks take effect with the next tick. Looking it up
+	 * takes two field reads, no lock and no thread local.
+	 * 
+	 * @param value
+	 *            bit of the value
+	 * @return whether the value is memoized
+	 */
+	private boolean isMemoized(int value) {
+		int storeVersion = segment.store.getVersion();
+		if (storeVersion != memoStoreVersion) {
+			memoized = 0;
+			memoStoreVersion = storeVersion;
+		}
+		return (memoized & value) != 0;
+	}
 
 	/**
 	 * @return the payer
@@ -125,6 +216,7 @@ abstract public class FloodProtection {
 	public void setCapacity(int capacity) {
 		int old = this.capacity;
 		this.capacity = capacity;
+		memoized = 0;
 		changes.firePropertyChange("capacity", old, capacity);
 	}
 
@@ -135,6 +227,7 @@ abstract public class FloodProtection {
 	public void setPayer(Steward payer) {
 		Steward old = this.payer;
 		this.payer = payer;
+		memoized = 0;
 		changes.firePropertyChange("payer", old, payer);
 	}
 
@@ -145,6 +238,7 @@ abstract public class FloodProtection {
 	public void setSegment(Segment segment) {
 		Segment old = this.segment;
 		this.segment = segment;
+		memoized = 0;
 		changes.firePropertyChange("segment", old, segment);
 	}
 
@@ -0,0 +1,265 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import cern.jet.random.Normal;
+
+
+/**
+ * Pre-generated discharges of the sources, kept on disk and replayed.
+ *
+ * If the <code>hydrology</code> parameter names a directory, the discharges of
+ * all the sources of a run are generated for <code>endAt</code> ticks before
+ * the first tick, each source from its own random stream, and written to a
+ * file in that directory. The name of the file is a hash of the seed, the
+ * way the streams are seeded from it ({@link RheinModel#SEEDING}), the number
+ * of ticks and the names and discharges of the sources, so every run
+ * with the same rivers and seed replays the same floods from the same file,
+ * whatever its policy parameters. The file is memory mapped and shared by all
+ * the runs of a JVM.
+ *
+ * The numbers are the ones a source would draw itself, so a run has the same
+ * outcome with and without a hydrology.
+ *
+ * The file holds four ints (a magic number, the version, the number of
+ * sources and the number of ticks), followed by the series of each source, in
+ * the order of their names.
+ *
+ * @author mlunzena
+ *
+ */
+public class Hydrology {
+
+
+  private static final int MAGIC = 0x52485944;
+
+
+  private static final int VERSION = 2;
+
+
+  private static final int HEADER = 16;
+
+
+  /**
+   * The series of each file mapped, by path.
+   */
+  private static final Map<String, IntBuffer[]> mapped = new HashMap<String, IntBuffer[]>();
+
+
+  /**
+   * Hands each source its series, generating the file first if needed.
+   *
+   * @param sources
+   * @param p
+   *          the parameters of the run
+   */
+  public static void attach(List<Source> sources, RheinParameters p) {
+
+    if (p.getHydrology().length() == 0 || sources.isEmpty()) {
+      return;
+    }
+
+    List<Source> sorted = new ArrayList<Source>(sources);
+    Collections.sort(sorted, new Comparator<Source>() {
+
+
+      @Override
+      public int compare(Source o1, Source o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+
+    int seed = RheinModel.current().getSeed();
+    int ticks = p.getEndAt();
+    File file = new File(p.getHydrology(), getName(sorted, seed, ticks));
+
+    IntBuffer[] series;
+    try {
+      series = map(file, sorted, ticks);
+    } catch (IOException e) {
+      throw new RuntimeException("cannot use hydrology " + file, e);
+    }
+
+    for (int i = 0; i < sorted.size(); i++) {
+      sorted.get(i).setSeries(series[i]);
+    }
+  }
+
+
+  /**
+   * Generates the series of the sources, side by side.
+   */
+  private static int[][] generate(final List<Source> sources, final int ticks) {
+
+    final int[][] series = new int[sources.size()][];
+    final RheinModel model = RheinModel.current();
+
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    int chunks = Math.min(sources.size(), Workers.getThreads());
+    for (int c = 0; c < chunks; c++) {
+      final int from = c * sources.size() / chunks;
+      final int to = (c + 1) * sources.size() / chunks;
+      tasks.add(new Callable<Object>() {
+
+
+        @Override
+        public Object call() {
+          for (int i = from; i < to; i++) {
+            Source source = sources.get(i);
+            Normal normal = new Normal(0, 1, model.newRandomEngine(source
+                .getName()));
+            int mean = source.getMeanDischarge();
+            int stdDev = source.getStdDevDischarge();
+            int[] values = new int[ticks];
+            for (int t = 0; t < ticks; t++) {
+              values[t] = (int) (normal.nextDouble() * stdDev + mean);
+            }
+            series[i] = values;
+          }
+          return null;
+        }
+      });
+    }
+    Workers.runAll(tasks);
+
+    return series;
+  }
+
+
+  private static String getName(List<Source> sources, int seed, int ticks) {
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+
+    StringBuilder key = new StringBuilder();
+    key.append(VERSION).append('\n').append(RheinModel.SEEDING).append('\n')
+        .append(seed).append('\n').append(ticks);
+    for (Source source : sources) {
+      key.append('\n').append(source.getName()).append('\t').append(
+          source.getMeanDischarge()).append('\t').append(
+          source.getStdDevDischarge());
+    }
+    digest.update(key.toString().getBytes());
+
+    StringBuilder name = new StringBuilder("hydrology-");
+    for (byte b : digest.digest()) {
+      name.append(String.format("%02x", b));
+    }
+    return name.append(".bin").toString();
+  }
+
+
+  /**
+   * @return the series of the sources, mapped from the file
+   */
+  private static IntBuffer[] map(File file, List<Source> sources, int ticks)
+      throws IOException {
+
+    synchronized (mapped) {
+
+      IntBuffer[] series = mapped.get(file.getPath());
+      if (series != null) {
+        return series;
+      }
+
+      if (!file.exists()) {
+        long start = System.nanoTime();
+        write(file, generate(sources, ticks));
+        if (Trace.isInfo()) {
+          Trace.info("hydrology %s generated in %d ms\n", file, (System
+              .nanoTime() - start) / 1000000);
+        }
+      }
+
+      FileInputStream in = new FileInputStream(file);
+      MappedByteBuffer buffer;
+      try {
+        FileChannel channel = in.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        // the mapping stays valid
+        in.close();
+      }
+
+      if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION || buffer.getInt(8) != sources.size()
+          || buffer.getInt(12) != ticks
+          || buffer.capacity() != HEADER + 4L * sources.size() * ticks) {
+        throw new IOException("not a hydrology of " + sources.size()
+            + " sources and " + ticks + " ticks");
+      }
+
+      series = new IntBuffer[sources.size()];
+      for (int i = 0; i < series.length; i++) {
+        buffer.position(HEADER + 4 * i * ticks);
+        ByteBuffer slice = buffer.slice();
+        slice.limit(4 * ticks);
+        series[i] = slice.asIntBuffer();
+      }
+
+      mapped.put(file.getPath(), series);
+      return series;
+    }
+  }
+
+
+  /**
+   * Writes the file to a file of its own first, so that other JVMs never see
+   * half a file.
+   */
+  private static void write(File file, int[][] series) throws IOException {
+
+    File dir = file.getAbsoluteFile().getParentFile();
+    dir.mkdirs();
+    File tmp = File.createTempFile("hydrology", ".tmp", dir);
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(series.length);
+      out.writeInt(series.length > 0 ? series[0].length : 0);
+      for (int[] values : series) {
+        for (int value : values) {
+          out.writeInt(value);
+        }
+      }
+    } finally {
+      out.close();
+    }
+
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      if (!file.exists()) {
+        throw new IOException("cannot rename " + tmp + " to " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ *
+ */
+package rhein;
+
+
+/**
+ * A bounded FIFO buffer of primitive ints that drops its oldest value when
+ * full.
+ *
+ * It keeps a running sum and a monotonic queue of the candidates for the
+ * maximum, so that {@link #getAverage()} and {@link #getMaximum()} take
+ * constant time regardless of the size of the buffer.
+ *
+ * @author mlunzena
+ *
+ */
+public class IntRingBuffer {
+
+
+  /**
+   * Number of values ever added, which is also the sequence number of the next
+   * value. The value with sequence number <code>q</code> is stored at
+   * <code>values[q % values.length]</code>.
+   */
+  private long count;
+
+
+  /**
+   * Sequence numbers of the values that may still become the maximum, with
+   * decreasing values from head to tail. Used as a ring itself.
+   */
+  private long[] maxima;
+
+
+  private int maximaHead;
+
+
+  private int maximaSize;
+
+
+  private int size;
+
+
+  private long sum;
+
+
+  private int[] values;
+
+
+  /**
+   * @param capacity
+   *          the maximum number of values kept
+   */
+  public IntRingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    values = new int[capacity];
+    maxima = new long[capacity];
+  }
+
+
+  /**
+   * Appends a value, dropping the oldest one if the buffer is full.
+   *
+   * @param value
+   */
+  public void add(int value) {
+
+    int capacity = values.length;
+
+    if (size == capacity) {
+      long oldest = count - capacity;
+      sum -= values[(int) (oldest % capacity)];
+      if (maxima[maximaHead] == oldest) {
+        maximaHead = (maximaHead + 1) % capacity;
+        maximaSize--;
+      }
+    } else {
+      size++;
+    }
+
+    values[(int) (count % capacity)] = value;
+    sum += value;
+
+    while (maximaSize > 0 && valueAt(maxima[maximaTail()]) <= value) {
+      maximaSize--;
+    }
+    maxima[(maximaHead + maximaSize) % capacity] = count;
+    maximaSize++;
+
+    count++;
+  }
+
+
+  /**
+   * @return the maximum number of values kept
+   */
+  public int capacity() {
+    return values.length;
+  }
+
+
+  /**
+   * @return the rounded mean of the values, 0 if the buffer is empty
+   */
+  public int getAverage() {
+    return Math.round((float) sum / size);
+  }
+
+
+  /**
+   * @return the largest value, {@link Integer#MIN_VALUE} if the buffer is
+   *         empty
+   */
+  public int getMaximum() {
+    if (maximaSize == 0) {
+      return Integer.MIN_VALUE;
+    }
+    return valueAt(maxima[maximaHead]);
+  }
+
+
+  /**
+   * @return the sum of the values
+   */
+  public long getSum() {
+    return sum;
+  }
+
+
+  /**
+   * Changes the capacity, keeping the most recent values that still fit.
+   *
+   * @param capacity
+   */
+  public void resize(int capacity) {
+
+    if (capacity == values.length) {
+      return;
+    }
+
+    int[] kept = toArray();
+    int from = Math.max(0, kept.length - capacity);
+
+    IntRingBuffer resized = new IntRingBuffer(capacity);
+    for (int i = from; i < kept.length; i++) {
+      resized.add(kept[i]);
+    }
+
+    count = resized.count;
+    maxima = resized.maxima;
+    maximaHead = resized.maximaHead;
+    maximaSize = resized.maximaSize;
+    size = resized.size;
+    sum = resized.sum;
+    values = resized.values;
+  }
+
+
+  /**
+   * @return the number of values in the buffer
+   */
+  public int size() {
+    return size;
+  }
+
+
+  /**
+   * @return the values from the oldest to the most recent
+   */
+  public int[] toArray() {
+    int[] array = new int[size];
+    for (int i = 0; i < size; i++) {
+      array[i] = valueAt(count - size + i);
+    }
+    return array;
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    StringBuilder b = new StringBuilder("[");
+    int[] array = toArray();
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) {
+        b.append(", ");
+      }
+      b.append(array[i]);
+    }
+    return b.append("]").toString();
+  }
+
+
+  private int maximaTail() {
+    return (maximaHead + maximaSize - 1) % values.length;
+  }
+
+
+  private int valueAt(long sequence) {
+    return values[(int) (sequence % values.length)];
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The rules of <code>Steward.drl</code> written down in Java.
+ *
+ * The rules only ever look at one steward and its segments and their
+ * conditions are simple, so the matching a rule engine does can be replaced by
+ * a few loops. The loops visit the segments in the order of
+ * {@link Steward#getSegments()}, the rules with a higher salience first.
+ *
+ * Only the cooperation rule depends on the order its activations fire in, as
+ * the flood protections one of them inserts upstream cancel the activation of
+ * the upstream segment. Drools fires activations of equal salience newest
+ * first, and the activations of the segments are created in the order the
+ * segments are inserted, i.e. the order of {@link Steward#getSegments()}. So
+ * the cooperation loop visits the segments backwards, the way the rules do.
+ *
+ * @author mlunzena
+ *
+ */
+public class JavaDecisionEngine implements DecisionEngine {
+
+
+  private final Steward steward;
+
+
+  /**
+   * @param steward
+   */
+  public JavaDecisionEngine(Steward steward) {
+    this.steward = steward;
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.DecisionEngine#dispose()
+   */
+  @Override
+  public void dispose() {
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.DecisionEngine#generateActions()
+   */
+  @Override
+  public List<FloodProtection> generateActions() {
+
+    RheinParameters p = RheinHelper.parameters();
+    List<Segment> segments = steward.getSegments();
+
+    List<FloodProtection> generated = new ArrayList<FloodProtection>();
+    Map<Segment, Boolean> protectedSegments = new IdentityHashMap<Segment, Boolean>();
+
+    boolean[] threatened = new boolean[segments.size()];
+    for (int i = 0; i < threatened.length; i++) {
+      threatened[i] = segments.get(i).isThreatened();
+    }
+
+    // "Action Generation: raise dike" and "Action Generation: retention basin"
+    for (int i = 0; i < threatened.length; i++) {
+
+      Segment segment = segments.get(i);
+      if (!threatened[i]) {
+        continue;
+      }
+
+      if (p.isDikesAllowed()
+          && segment.getDikeCapacity() < segment.getMaxDikeCapacity()) {
+        int diff = segment.getMaxDikeCapacity() - segment.getDikeCapacity();
+        RaiseDike dike = new RaiseDike(segment, steward, Math.min(1000, diff));
+        insert(generated, protectedSegments, dike);
+        if (Trace.isDebug()) {
+          Trace.debug("  >>> dike generated %s\n", dike);
+        }
+      }
+
+      if (!segment.isNaturalDike()) {
+        for (RetentionBasin retention : segment.getPossibleRetentionBasins()) {
+          AddRetentionBasin action = new AddRetentionBasin(segment, steward,
+              retention);
+          insert(generated, protectedSegments, action);
+          if (Trace.isDebug()) {
+            Trace.debug("  >>> retention generated %s\n", action);
+          }
+        }
+      }
+    }
+
+    // "Action Generation: no floodprotection yet but in need", newest
+    // activation first
+    if (p.isCooperationAllowed()) {
+      for (int i = threatened.length - 1; i >= 0; i--) {
+
+        Segment segment = segments.get(i);
+        if (!threatened[i] || protectedSegments.containsKey(segment)) {
+          continue;
+        }
+
+        if (Trace.isDebug()) {
+          Trace.debug("@@@Coop@@@\n");
+        }
+        Segment upstream = segment.getUpstreamRetentionBasins();
+        if (upstream != null) {
+          for (RetentionBasin retention : upstream
+              .getPossibleRetentionBasins()) {
+            AddRetentionBasin action = new AddRetentionBasin(upstream,
+                steward, retention);
+            insert(generated, protectedSegments, action);
+            if (Trace.isDebug()) {
+              Trace.debug("  >>> upstream (%s) retention generated %s for %s \n",
+                  upstream.getName(), action, segment.getName());
+            }
+          }
+        } else if (Trace.isDebug()) {
+          Trace.debug("  >>> no upstream retention found for %s \n", segment
+              .getName());
+        }
+      }
+    }
+
+    // the norms
+    Ownership ownership = RheinHelper.getOwnership();
+    for (Iterator<FloodProtection> it = generated.iterator(); it.hasNext();) {
+
+      FloodProtection f = it.next();
+      Segment segment = f.getSegment();
+
+      if (ownership.getSteward(segment) == steward && !segment.isThreatened()) {
+        it.remove();
+        if (Trace.isDebug()) {
+          Trace.debug("  >>> no overflow, retracted %s\n", f);
+        }
+      } else if (f.getPayer().getBalance() < f.getCost()) {
+        if (Trace.isDebug()) {
+          Trace.debug("  >>> not enough funds to pay for %s\n", f);
+        }
+        it.remove();
+      }
+    }
+
+    return generated;
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.DecisionEngine#selectActions()
+   */
+  @Override
+  public void selectActions() {
+
+    FloodProtection.Metric metric = RheinHelper.parameters()
+        .getCostEffectivenessMetric();
+
+    for (Segment segment : steward.getSegments()) {
+
+      // "insert floodprotections"
+      List<FloodProtection> candidates = new ArrayList<FloodProtection>();
+      Map<FloodProtection, Boolean> seen = new IdentityHashMap<FloodProtection, Boolean>();
+      boolean foreign = false;
+      for (FloodProtection f : segment.getPossibleActions()) {
+        if (seen.put(f, Boolean.TRUE) == null) {
+          candidates.add(f);
+          foreign |= f.getPayer() != steward;
+          if (Trace.isDebug()) {
+            Trace.debug("  >>> inserted %s\n", f);
+          }
+        }
+      }
+
+      // "remove own floodprotections if someone else wants one"
+      if (foreign) {
+        for (Iterator<FloodProtection> it = candidates.iterator(); it
+            .hasNext();) {
+          FloodProtection f = it.next();
+          if (f.getPayer() == steward) {
+            it.remove();
+            if (Trace.isDebug()) {
+              Trace.debug("  >>> retracted own %s\n", f);
+            }
+          }
+        }
+      }
+
+      // "choose the most cost effective floodprotection"
+      if (candidates.size() > 1) {
+        for (FloodProtection f : BestAction.inferior(segment, candidates,
+            metric)) {
+          segment.removePossibleAction(f);
+          if (Trace.isDebug()) {
+            Trace.debug("  >>> retracted inferior using %s metric %s\n",
+                metric, f);
+          }
+        }
+      }
+    }
+  }
+
+
+  private void insert(List<FloodProtection> generated,
+      Map<Segment, Boolean> protectedSegments, FloodProtection f) {
+    generated.add(f);
+    protectedSegments.put(f.getSegment(), Boolean.TRUE);
+  }
+}
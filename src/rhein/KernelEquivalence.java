@@ -0,0 +1,262 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Runs batch sweeps once with the Repast batch runner and once with the
+ * headless {@link Simulation}, checks that both write the same data sets and
+ * reports how many ticks per second each of them ran.
+ *
+ * Usage: <code>KernelEquivalence [scenario] [sweep file or directory ...]</code>,
+ * by default <code>batch/rheinbatch.xml</code> and the sweeps in
+ * <code>batch/random</code> of the scenario <code>rhein.rs</code>, which the
+ * headless kernel has to reproduce before it replaces the batch runner.
+ * Every sweep is copied with <code>traceLevel</code> set to <code>OFF</code>
+ * and run by <code>BatchMain</code> on a copy of the scenario whose file
+ * outputters write to a directory of their own, and by {@link SweepRunner} on
+ * one thread, each in a JVM of its own, using the class path of this one.
+ *
+ * The <code>segments</code> and <code>payments</code> data sets are compared
+ * line by line, once sorted, as the runners write the segments of a tick and
+ * the runs of a sweep in different orders; numbers are compared by value, so
+ * <code>1.0</code> equals <code>1</code>. The throughput is the number of
+ * ticks of all runs, i.e. the lines of the payments data set, per second of
+ * wall clock time, JVM start included. The exit status is the number of
+ * sweeps whose data sets differ.
+ *
+ * @author mlunzena
+ *
+ */
+public class KernelEquivalence {
+
+
+  /**
+   * The data sets compared, by the name of their file.
+   */
+  private static final String[] DATA_SETS = { "segments.txt", "payments.txt" };
+
+
+  /**
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    File scenario = new File(args.length > 0 ? args[0] : "rhein.rs");
+    List<File> sweeps = EngineEquivalence.sweeps(args, "batch/rheinbatch.xml",
+        "batch/random");
+
+    File dir = File.createTempFile("kernel", "");
+    dir.delete();
+    dir.mkdirs();
+
+    int failures = 0;
+    for (File sweep : sweeps) {
+
+      String name = sweep.getParentFile().getName() + "-"
+          + sweep.getName().replace(".xml", "");
+      File params = new File(dir, name + ".xml");
+      writeSweep(sweep, params);
+
+      File repast = new File(dir, name + "-repast");
+      File copy = new File(dir, name + "-scenario");
+      copyScenario(scenario, copy, repast);
+      repast.mkdirs();
+      long start = System.nanoTime();
+      EngineEquivalence.java("repast.simphony.batch.BatchMain", "-params",
+          params.getPath(), copy.getPath());
+      double repastSeconds = (System.nanoTime() - start) / 1e9;
+
+      File headless = new File(dir, name + "-headless");
+      start = System.nanoTime();
+      EngineEquivalence.java(SweepRunner.class.getName(), "-threads", "1",
+          "-out", headless.getPath(), params.getPath());
+      double headlessSeconds = (System.nanoTime() - start) / 1e9;
+
+      String difference = null;
+      for (String dataSet : DATA_SETS) {
+        difference = compare(new File(repast, dataSet), new File(headless,
+            dataSet));
+        if (difference != null) {
+          difference = dataSet + " " + difference;
+          break;
+        }
+      }
+
+      int ticks = Math.max(0, EngineEquivalence.readLines(
+          new File(headless, "payments.txt")).size() - 1);
+      System.out.format("%-30s %s, %d ticks, repast %.0f ticks/s, "
+          + "headless %.0f ticks/s, %.1fx\n", name, difference == null ? "ok"
+          : "DIFFERENT " + difference, ticks, ticks / repastSeconds, ticks
+          / headlessSeconds, repastSeconds / headlessSeconds);
+      if (difference != null) {
+        failures++;
+      }
+    }
+
+    System.out.format("data sets are in %s\n", dir);
+    System.exit(failures);
+  }
+
+
+  /**
+   * @return a description of the first difference of the sorted lines,
+   *         <code>null</code> if there is none
+   */
+  private static String compare(File a, File b) throws IOException {
+
+    List<String> linesA = normalize(a);
+    List<String> linesB = normalize(b);
+    if (linesA.isEmpty()) {
+      return "missing in " + a;
+    }
+
+    for (int i = 0; i < Math.max(linesA.size(), linesB.size()); i++) {
+      String lineA = i < linesA.size() ? linesA.get(i) : "<end>";
+      String lineB = i < linesB.size() ? linesB.get(i) : "<end>";
+      if (!lineA.equals(lineB)) {
+        return "'" + lineA + "' vs. '" + lineB + "'";
+      }
+    }
+    return null;
+  }
+
+
+  /**
+   * Copies a scenario directory, pointing its file outputters to the same
+   * file names in another directory.
+   */
+  private static void copyScenario(File from, File to, File output)
+      throws IOException {
+
+    to.mkdirs();
+    for (File file : from.listFiles()) {
+      File target = new File(to, file.getName());
+      if (file.isDirectory()) {
+        copyScenario(file, target, output);
+        continue;
+      }
+
+      if (!file.getName().contains("OutputterDescriptor")
+          || file.getName().contains("Chart")) {
+        copy(file, target);
+        continue;
+      }
+
+      StringBuilder xml = new StringBuilder();
+      for (String line : EngineEquivalence.readLines(file)) {
+        int open = line.indexOf("<fileName>");
+        int close = line.indexOf("</fileName>");
+        if (open >= 0 && close > open) {
+          String path = line.substring(open + "<fileName>".length(), close);
+          line = line.substring(0, open) + "<fileName>"
+              + new File(output, new File(path).getName()).getPath()
+              + line.substring(close);
+        }
+        xml.append(line).append('\n');
+      }
+      Writer out = new FileWriter(target);
+      try {
+        out.write(xml.toString());
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+
+  private static void copy(File from, File to) throws IOException {
+    InputStream in = new FileInputStream(from);
+    try {
+      OutputStream out = new FileOutputStream(to);
+      try {
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+          out.write(buffer, 0, n);
+        }
+      } finally {
+        out.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+
+  /**
+   * @return the lines of a data set without its header, with the quotes
+   *         around the fields dropped and the numbers in a canonical form,
+   *         sorted
+   */
+  private static List<String> normalize(File file) throws IOException {
+
+    List<String> lines = EngineEquivalence.readLines(file);
+    List<String> normalized = new ArrayList<String>();
+    for (int i = 1; i < lines.size(); i++) {
+      StringBuilder line = new StringBuilder();
+      for (String field : lines.get(i).split(",", -1)) {
+        if (line.length() > 0) {
+          line.append(',');
+        }
+        field = field.trim();
+        if (field.length() > 1 && field.startsWith("\"")
+            && field.endsWith("\"")) {
+          field = field.substring(1, field.length() - 1);
+        }
+        try {
+          BigDecimal number = new BigDecimal(field);
+          field = number.signum() == 0 ? "0" : number.stripTrailingZeros()
+              .toPlainString();
+        } catch (NumberFormatException e) {
+          // not a number
+        }
+        line.append(field);
+      }
+      normalized.add(line.toString());
+    }
+    Collections.sort(normalized);
+    return normalized;
+  }
+
+
+  /**
+   * Copies a sweep, turning the trace off.
+   */
+  private static void writeSweep(File sweep, File params) throws IOException {
+
+    StringBuilder xml = new StringBuilder();
+    for (String line : EngineEquivalence.readLines(sweep)) {
+      if (line.contains("name=\"traceLevel\"")) {
+        continue;
+      }
+      xml.append(line).append('\n');
+      if (line.trim().startsWith("<sweep")) {
+        xml.append(EngineEquivalence.constant("traceLevel", Trace.Level.OFF
+            .name()));
+      }
+    }
+
+    Writer out = new FileWriter(params);
+    try {
+      out.write(xml.toString());
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The files the runs of a JVM append their logs to.
+ *
+ * A file is opened once and shared by all runs naming it, so the runs of a
+ * batch end up one after the other in the same file. Whoever writes to a file
+ * synchronizes on its writer. Runs going on at the same time get files of
+ * their own, see {@link #forRun(Map, String)}.
+ *
+ * @author mlunzena
+ *
+ */
+class LogFiles {
+
+
+  /**
+   * The parameters naming log files.
+   */
+  private static final String[] PARAMETERS = { "constructionLog",
+      "ruleStatistics", "stopLog" };
+
+
+  private static final Map<String, PrintWriter> writers = new HashMap<String, PrintWriter>();
+
+
+  /**
+   * Closes the files named by the parameters of a run that is done, so they
+   * do not stay open until the JVM exits.
+   *
+   * @param values
+   *          the parameters of the run
+   */
+  static synchronized void close(Map<String, String> values) {
+    for (String name : PARAMETERS) {
+      String file = values.get(name);
+      PrintWriter out = file == null ? null : writers.remove(file);
+      if (out != null) {
+        out.close();
+      }
+    }
+  }
+
+
+  /**
+   * Gives every log file named by the parameters of a run a name of its own,
+   * with the tag inserted before the extension, e.g.
+   * <code>constructions-17.txt</code> for run 17, so that the lines of runs
+   * going on at the same time are not mixed up.
+   *
+   * @param values
+   *          the parameters of the run, changed in place
+   * @param tag
+   *          what tells the run apart from the others
+   */
+  static void forRun(Map<String, String> values, String tag) {
+    for (String name : PARAMETERS) {
+      String file = values.get(name);
+      if (file == null || file.length() == 0) {
+        continue;
+      }
+      int dot = file.lastIndexOf('.');
+      int slash = Math.max(file.lastIndexOf('/'), file
+          .lastIndexOf(File.separatorChar));
+      if (dot <= slash) {
+        dot = file.length();
+      }
+      values.put(name, file.substring(0, dot) + "-" + tag
+          + file.substring(dot));
+    }
+  }
+
+
+  /**
+   * @param file
+   * @param what
+   *          the kind of log, for the error message
+   * @return the writer appending to the file
+   */
+  static synchronized PrintWriter get(String file, String what) {
+    PrintWriter out = writers.get(file);
+    if (out == null) {
+      try {
+        out = new PrintWriter(new FileWriter(file, true));
+      } catch (IOException e) {
+        throw new RuntimeException("cannot open " + what + " " + file, e);
+      }
+      writers.put(file, out);
+    }
+    return out;
+  }
+}
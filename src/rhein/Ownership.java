@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import repast.simphony.space.graph.Network;
+import repast.simphony.space.graph.RepastEdge;
+import repast.simphony.space.projection.ProjectionEvent;
+import repast.simphony.space.projection.ProjectionListener;
+
+
+/**
+ * Keeps track of which steward looks after which segments.
+ *
+ * The ownership is read from the stewards/rivers network once and then kept in
+ * sync by listening to it. It is stored right in the segments and stewards, so
+ * {@link Segment#getSteward()} and {@link Steward#getSegments()} are simple
+ * field reads instead of scans of the network.
+ *
+ * @author mlunzena
+ *
+ */
+public class Ownership {
+
+
+  /**
+   * All stewards linked to at least one segment.
+   */
+  private final ArrayList<Steward> linked = new ArrayList<Steward>();
+
+
+  private final Network<Object> net;
+
+
+  /**
+   * @param net
+   *          the network linking stewards and segments
+   */
+  public Ownership(Network<Object> net) {
+
+    this.net = net;
+
+    rebuild();
+
+    net.addProjectionListener(new ProjectionListener<Network<Object>>() {
+
+
+      @Override
+      public void projectionEventOccurred(ProjectionEvent<Network<Object>> evt) {
+        switch (evt.getType()) {
+        case EDGE_ADDED:
+        case EDGE_REMOVED:
+          if (evt.getSubject() instanceof RepastEdge<?>) {
+            RepastEdge<?> edge = (RepastEdge<?>) evt.getSubject();
+            if (evt.getType() == ProjectionEvent.Type.EDGE_ADDED) {
+              link(edge.getSource(), edge.getTarget());
+            } else {
+              unlink(edge.getSource(), edge.getTarget());
+            }
+          } else {
+            rebuild();
+          }
+          break;
+        case OBJECT_REMOVED:
+          rebuild();
+          break;
+        default:
+          break;
+        }
+      }
+    });
+  }
+
+
+  /**
+   * @param segment
+   * @return the steward of the segment, <code>null</code> if it has none
+   */
+  public Steward getSteward(Segment segment) {
+    return segment.steward;
+  }
+
+
+  /**
+   * @param steward
+   * @return the segments of the steward, a read-only view
+   */
+  public List<Segment> getSegments(Steward steward) {
+    return steward.segmentsView;
+  }
+
+
+  /**
+   * Reads the whole ownership from the network again.
+   */
+  public synchronized void rebuild() {
+
+    for (Steward steward : linked) {
+      for (Segment segment : steward.segments) {
+        segment.steward = null;
+      }
+      steward.segments.clear();
+    }
+    linked.clear();
+
+    for (Object o : net.getNodes()) {
+      if (o instanceof Steward) {
+        for (Object adjacent : net.getAdjacent(o)) {
+          link(o, adjacent);
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Records an edge between a steward and a segment, in either direction.
+   */
+  private synchronized void link(Object a, Object b) {
+
+    Steward steward = (Steward) (a instanceof Steward ? a
+        : b instanceof Steward ? b : null);
+    Segment segment = (Segment) (a instanceof Segment ? a
+        : b instanceof Segment ? b : null);
+    if (steward == null || segment == null) {
+      return;
+    }
+
+    if (segment.steward == steward) {
+      return;
+    }
+    if (segment.steward != null) {
+      throw new RuntimeException("segment " + segment
+          + " has more than one steward [" + segment.steward + ", " + steward
+          + "]");
+    }
+
+    segment.steward = steward;
+    steward.segments.add(segment);
+    if (steward.segments.size() == 1) {
+      linked.add(steward);
+    }
+  }
+
+
+  /**
+   * Forgets an edge between a steward and a segment.
+   */
+  private synchronized void unlink(Object a, Object b) {
+
+    Steward steward = (Steward) (a instanceof Steward ? a
+        : b instanceof Steward ? b : null);
+    Segment segment = (Segment) (a instanceof Segment ? a
+        : b instanceof Segment ? b : null);
+    if (steward == null || segment == null || segment.steward != steward) {
+      return;
+    }
+
+    segment.steward = null;
+    steward.segments.remove(segment);
+    if (steward.segments.isEmpty()) {
+      linked.remove(steward);
+    }
+  }
+}
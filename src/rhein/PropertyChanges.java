@@ -0,0 +1,220 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * A replacement for {@link java.beans.PropertyChangeSupport} tuned for the
+ * tick loop.
+ *
+ * As long as nobody listens, firing a change does nothing at all, not even
+ * boxing its values. Otherwise the changes are collected and delivered once
+ * per tick by {@link Pending#flush()} as a single {@link Batch} per bean,
+ * holding the first old and the last new value of every property that changed.
+ * Every {@link RheinModel} has {@link Pending pending changes} of its own, so
+ * one run delivering its changes does not deliver those of another.
+ *
+ * @author mlunzena
+ *
+ */
+public class PropertyChanges {
+
+
+  /**
+   * All the changes of one bean since the last flush. Like any
+   * {@link PropertyChangeEvent} without a property name, it tells listeners
+   * that several properties may have changed.
+   */
+  public static class Batch extends PropertyChangeEvent {
+
+
+    private static final long serialVersionUID = 1L;
+
+
+    private final Collection<PropertyChangeEvent> changes;
+
+
+    /**
+     * @param source
+     * @param changes
+     */
+    public Batch(Object source, Collection<PropertyChangeEvent> changes) {
+      super(source, null, null, null);
+      this.changes = Collections.unmodifiableCollection(changes);
+    }
+
+
+    /**
+     * @return one event per changed property
+     */
+    public Collection<PropertyChangeEvent> getChanges() {
+      return changes;
+    }
+  }
+
+
+  /**
+   * The beans of one run with changes waiting to be delivered.
+   */
+  public static class Pending {
+
+
+    private final ConcurrentLinkedQueue<PropertyChanges> dirty = new ConcurrentLinkedQueue<PropertyChanges>();
+
+
+    /**
+     * Delivers the pending changes of all the beans.
+     */
+    public void flush() {
+      PropertyChanges changes;
+      while ((changes = dirty.poll()) != null) {
+        changes.flush();
+      }
+    }
+
+
+    void add(PropertyChanges changes) {
+      dirty.add(changes);
+    }
+  }
+
+
+  private static final PropertyChangeListener[] NONE = new PropertyChangeListener[0];
+
+
+  /**
+   * Copied on write, so firing does not need to lock.
+   */
+  private volatile PropertyChangeListener[] listeners = NONE;
+
+
+  /**
+   * Property name to first old and last new value, <code>null</code> if
+   * nothing is pending.
+   */
+  private LinkedHashMap<String, Object[]> pending;
+
+
+  private final Object source;
+
+
+  /**
+   * @param source
+   *          the bean firing the changes
+   */
+  public PropertyChanges(Object source) {
+    this.source = source;
+  }
+
+
+  public synchronized void addPropertyChangeListener(
+      final PropertyChangeListener l) {
+    PropertyChangeListener[] more = new PropertyChangeListener[listeners.length + 1];
+    System.arraycopy(listeners, 0, more, 0, listeners.length);
+    more[listeners.length] = l;
+    listeners = more;
+  }
+
+
+  public void firePropertyChange(String name, boolean oldValue,
+      boolean newValue) {
+    if (listeners.length > 0 && oldValue != newValue) {
+      record(name, Boolean.valueOf(oldValue), Boolean.valueOf(newValue));
+    }
+  }
+
+
+  public void firePropertyChange(String name, int oldValue, int newValue) {
+    if (listeners.length > 0 && oldValue != newValue) {
+      record(name, Integer.valueOf(oldValue), Integer.valueOf(newValue));
+    }
+  }
+
+
+  public void firePropertyChange(String name, Object oldValue, Object newValue) {
+    if (listeners.length > 0
+        && (oldValue == null || newValue == null || !oldValue.equals(newValue))) {
+      record(name, oldValue, newValue);
+    }
+  }
+
+
+  /**
+   * Delivers the pending changes of this bean.
+   */
+  public void flush() {
+
+    LinkedHashMap<String, Object[]> changed;
+    synchronized (this) {
+      changed = pending;
+      pending = null;
+    }
+    if (changed == null) {
+      return;
+    }
+
+    ArrayList<PropertyChangeEvent> events = new ArrayList<PropertyChangeEvent>();
+    for (String name : changed.keySet()) {
+      Object[] values = changed.get(name);
+      if (values[0] != null && values[0].equals(values[1])) {
+        continue;
+      }
+      events.add(new PropertyChangeEvent(source, name, values[0], values[1]));
+    }
+    if (events.isEmpty()) {
+      return;
+    }
+
+    Batch batch = new Batch(source, events);
+    for (PropertyChangeListener l : listeners) {
+      l.propertyChange(batch);
+    }
+  }
+
+
+  /**
+   * @return whether anybody listens
+   */
+  public boolean hasListeners() {
+    return listeners.length > 0;
+  }
+
+
+  public synchronized void removePropertyChangeListener(
+      final PropertyChangeListener l) {
+    for (int i = 0; i < listeners.length; i++) {
+      if (listeners[i] == l) {
+        PropertyChangeListener[] less = new PropertyChangeListener[listeners.length - 1];
+        System.arraycopy(listeners, 0, less, 0, i);
+        System.arraycopy(listeners, i + 1, less, i, less.length - i);
+        listeners = less;
+        return;
+      }
+    }
+  }
+
+
+  private synchronized void record(String name, Object oldValue,
+      Object newValue) {
+    if (pending == null) {
+      pending = new LinkedHashMap<String, Object[]>();
+      RheinModel.current().getPropertyChanges().add(this);
+    }
+    Object[] values = pending.get(name);
+    if (values == null) {
+      pending.put(name, new Object[] { oldValue, newValue });
+    } else {
+      values[1] = newValue;
+    }
+  }
+}
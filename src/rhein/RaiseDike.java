@@ -4,12 +4,6 @@
 package rhein;
 
 
-import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.parameter.Parameters;
-
-import com.google.common.base.Predicate;
-
-
 /**
  * @author mlunzena
  *
@@ -47,34 +41,28 @@ public class RaiseDike extends FloodProtection {
   }
 
 
-  public long getCost() {
+  @Override
+  protected long computeCost() {
     return segment.getLength() * 2 * getCostPerKilometer();
   }
 
 
   private int getCostPerKilometer() {
-    Parameters p = RunEnvironment.getInstance().getParameters();
+    RheinParameters p = RheinHelper.parameters();
 
-    return (int) (((Double) p.getValue("dikeBaseCost")) + capacity
-        * ((Double) p.getValue("dikeCostPerCubicMeter")));
+    return (int) (p.getDikeBaseCost() + capacity
+        * p.getDikeCostPerCubicMeter());
   }
 
 
   /*
    * (non-Javadoc)
    *
-   * @see rhein.FloodProtection#getSubbasinCostEffectiveness()
+   * @see rhein.FloodProtection#computeSubbasinCostEffectiveness()
    */
   @Override
-  public double getSubbasinCostEffectiveness() {
-    int subbasinLength = segment
-        .getLengthOfDownstream(new Predicate<Segment>() {
-
-
-          public boolean apply(Segment s) {
-            return s.getSteward() == payer;
-          }
-        });
+  protected double computeSubbasinCostEffectiveness() {
+    int subbasinLength = segment.getLengthOfDownstreamOwnedBy(payer);
     return getCostEffectiveness() * segment.getLength() / subbasinLength;
   }
 
@@ -82,10 +70,10 @@ public class RaiseDike extends FloodProtection {
   /*
    * (non-Javadoc)
    *
-   * @see rhein.FloodProtection#getWholeBasinCostEffectiveness()
+   * @see rhein.FloodProtection#computeWholeBasinCostEffectiveness()
    */
   @Override
-  public double getWholeBasinCostEffectiveness() {
+  protected double computeWholeBasinCostEffectiveness() {
     return getCostEffectiveness() * segment.getLength()
         / segment.getLengthOfDownstream();
   }
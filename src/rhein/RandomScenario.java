@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package rhein;
+
+
+import repast.simphony.space.graph.Network;
+
+
+/**
+ * Six random rivers of six segments each, one steward per segment.
+ *
+ * @author mlunzena
+ *
+ */
+public class RandomScenario extends Scenario {
+
+
+  private static final int RIVERS = 6;
+
+
+  private static final int SEGMENTS = 6;
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.Scenario#build(rhein.RheinParameters, rhein.Scenario.Space,
+   * repast.simphony.space.graph.Network, repast.simphony.space.graph.Network,
+   * repast.simphony.space.graph.Network)
+   */
+  @Override
+  public void build(RheinParameters p, Space space, Network<Object> riversNet,
+      Network<Object> stewardsRiversNet, Network<Object> stewardsNet) {
+
+    RandomStream random = RheinHelper.stream("topology");
+
+    Steward stewards[][] = new Steward[RIVERS][SEGMENTS];
+    for (int i = 0; i < RIVERS; i++) {
+      for (int j = 0; j < SEGMENTS; j++) {
+        stewards[i][j] = new Steward("Steward " + i + "-" + j, p.getStewardStartBalance());
+        space.add(stewards[i][j]);
+
+        space.moveTo(stewards[i][j], 99, i * RIVERS + j);
+
+        for (int k = 0; k < j; k++) {
+          stewardsNet.addEdge(stewards[i][j], stewards[i][k]);
+        }
+      }
+    }
+
+    for (int i = 0; i < RIVERS; i++) {
+      for (int j = 0; j < SEGMENTS; j++) {
+        int river = random.nextIntFromTo(0, RIVERS - 1);
+        int segment = random.nextIntFromTo(0, SEGMENTS - 1);
+        if (i != river) {
+          if (!stewardsNet.isAdjacent(stewards[i][j], stewards[river][segment])) {
+            stewardsNet.addEdge(stewards[i][j], stewards[river][segment]);
+          }
+        }
+      }
+    }
+
+    Segment last;
+    for (int i = 0; i < RIVERS; i++) {
+      last = null;
+      for (int j = 0; j < SEGMENTS; j++) {
+        int mean = random.nextIntFromTo(1500, 4000);
+        int stddev = random.nextIntFromTo(250, 650);
+        Source source = new Source("Source " + i + "-" + j, mean, stddev);
+
+        int length = random.nextIntFromTo(50, 250);
+        int capacity = random.nextIntFromTo(5, 15) * 1000;
+
+        Segment segment = new Segment("Segment " + i + "-" + j, length,
+            capacity, 0);
+
+        if (j == SEGMENTS / 2) {
+          segment.setMaxDikeCapacity(capacity);
+          segment.setNaturalDike(true);
+        } else {
+          segment.generatePossibleRetentionBasin();
+          segment.generatePossibleRetentionBasin();
+          segment.generatePossibleRetentionBasin();
+        }
+
+        space.add(source);
+        space.add(segment);
+
+        space.moveTo(source,  i * 10, j * 10 + i);
+        space.moveTo(segment, i * 10 + 5, j * 10 + 5 + i);
+
+
+        riversNet.addEdge(source, segment);
+        if (last != null) {
+          riversNet.addEdge(last, segment);
+        }
+        last = segment;
+        stewardsRiversNet.addEdge(stewards[i][j], segment);
+      }
+    }
+
+    // SCHEDULERS
+    RiverScheduler riverScheduler = new RiverScheduler();
+    space.add(riverScheduler);
+
+    StewardScheduler stewardScheduler = new StewardScheduler();
+    space.add(stewardScheduler);
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.Scenario#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return 100;
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.Scenario#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return 100;
+  }
+}
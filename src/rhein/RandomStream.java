@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.Serializable;
+
+import cern.jet.random.Normal;
+import cern.jet.random.Uniform;
+import cern.jet.random.engine.RandomEngine;
+
+
+/**
+ * A random number generator with the distributions drawn from it.
+ *
+ * A stream is only ever used by one thread at a time. It is serializable, so
+ * that a {@link Checkpoint} can go on where it stopped.
+ *
+ * @author mlunzena
+ *
+ * @see RheinModel#stream(String)
+ */
+public class RandomStream implements Serializable {
+
+
+  private static final long serialVersionUID = 1L;
+
+
+  private final Normal normal;
+
+
+  private final Uniform uniform;
+
+
+  /**
+   * @param engine
+   */
+  public RandomStream(RandomEngine engine) {
+    normal = new Normal(0, 1, engine);
+    uniform = new Uniform(0, 1, engine);
+  }
+
+
+  public int nextIntFromTo(int from, int to) {
+    return uniform.nextIntFromTo(from, to);
+  }
+
+
+  /**
+   * @return a standard normal number
+   */
+  public double nextNormalDouble() {
+    return normal.nextDouble();
+  }
+
+
+  public double nextNormalDouble(double mean, double stdDev) {
+    return normal.nextDouble() * stdDev + mean;
+  }
+
+
+  public double nextUniform() {
+    return uniform.nextDouble();
+  }
+
+
+  public double nextUniform(double from, double to) {
+    return uniform.nextDoubleFromTo(from, to);
+  }
+}
@@ -35,12 +35,14 @@ public class RetentionBasinGenerator {
 	protected long stdDevRetentionAmount = 2000000 / 86000;
 
 	/**
+	 * @param random
+	 *            the stream to draw from
 	 * @return
 	 */
-	public RetentionBasin generateRetentionBasin() {
+	public RetentionBasin generateRetentionBasin(RandomStream random) {
 
-		double p = RheinHelper.nextUniform();
-		double r = RheinHelper.nextNormalDouble();
+		double p = random.nextUniform();
+		double r = random.nextNormalDouble();
 
 		if (!(p < probability)) {
 			return null;
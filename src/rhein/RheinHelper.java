@@ -4,58 +4,115 @@
 package rhein;
 
 
-import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.essentials.RepastEssentials;
+import repast.simphony.parameter.Parameters;
 import repast.simphony.space.graph.Network;
-import cern.jet.random.Normal;
-import cern.jet.random.Uniform;
-import cern.jet.random.engine.MersenneTwister;
 import cern.jet.random.engine.RandomEngine;
 
 
 /**
+ * Static access to the {@link RheinModel} of the current thread, for the
+ * agents and the rules.
+ *
  * @author mlunzena
  *
  */
 public class RheinHelper {
 
 
-  private static RandomEngine generator;
-
-
-  private static Normal normal;
-
-
   public final static String RIVER_NETWORK_NAME = "Rhein/Rivers";
 
 
   public final static String STEWARD_RIVER_NETWORK_NAME = "Rhein/StewardsRivers";
 
 
-  private static Uniform uniform;
+  /**
+   * @return the model of the current thread
+   */
+  public static RheinModel model() {
+    return RheinModel.current();
+  }
 
 
-  @SuppressWarnings("unchecked")
   public static Network<Object> getRiverNetwork() {
-    return (Network<Object>) RepastEssentials
-        .FindProjection(RIVER_NETWORK_NAME);
+    return model().getRiverNetwork();
   }
 
 
   /**
    * @return
    */
-  @SuppressWarnings("unchecked")
   public static Network<Object> getStewardRiverNetwork() {
-    return (Network<Object>) RepastEssentials
-        .FindProjection(STEWARD_RIVER_NETWORK_NAME);
+    return model().getStewardRiverNetwork();
+  }
+
+
+  /**
+   * @return the store holding the state of the segments of the current run
+   */
+  public static SegmentStore getSegmentStore() {
+    return model().getSegmentStore();
+  }
+
+
+  /**
+   * @return the index of the downstream chains of the current run
+   */
+  public static DownstreamIndex getDownstreamIndex() {
+    return model().getDownstreamIndex();
+  }
+
+
+  /**
+   * @return who looks after which segments in the current run
+   */
+  public static Ownership getOwnership() {
+    return model().getOwnership();
+  }
+
+
+  /**
+   * Makes sure the ownership of the current run has been read from the
+   * network, so that the stewards and segments it fills in are up to date.
+   */
+  public static void ensureOwnership() {
+    model().getOwnership();
+  }
+
+
+  /**
+   * Forces the downstream index to be rebuilt, e.g. after a segment changed its
+   * length.
+   */
+  public static void invalidateDownstreamIndex() {
+    model().invalidateDownstreamIndex();
   }
 
 
   public static void init(int seed) {
-    RheinHelper.generator = new MersenneTwister(seed);
-    RheinHelper.normal = new Normal(0, 1, RheinHelper.generator);
-    RheinHelper.uniform = new Uniform(0, 1, RheinHelper.generator);
+    model().init(seed);
+  }
+
+
+  /**
+   * Creates a random number generator of its own for the named consumer. It
+   * only depends on the seed of the run and the name, so the numbers drawn do
+   * not depend on the order in which the consumers are asked.
+   *
+   * @param name
+   * @return
+   */
+  public static RandomEngine newRandomEngine(String name) {
+    return model().newRandomEngine(name);
+  }
+
+
+  /**
+   * @param name
+   * @return the stream for one purpose
+   * @see RheinModel#stream(String)
+   */
+  public static RandomStream stream(String name) {
+    return model().stream(name);
   }
 
 
@@ -68,38 +125,58 @@ public class RheinHelper {
 
 
   public static double nextNormalDouble(double mean, double stdDev) {
-    double raw = normal.nextDouble();
-    return raw * stdDev + mean;
+    return model().getRandom().nextNormalDouble(mean, stdDev);
   }
 
 
   public static int nextIntFromTo(int from, int to) {
-    return uniform.nextIntFromTo(from, to);
+    return model().getRandom().nextIntFromTo(from, to);
   }
 
 
   public static double nextUniform() {
-    return uniform.nextDouble();
+    return model().getRandom().nextUniform();
   }
 
   public static double nextUniform(double from, double to) {
-    return uniform.nextDoubleFromTo(from, to);
+    return model().getRandom().nextUniform(from, to);
   }
   
-  public static Boolean dikesAllowed() {
-	  return (Boolean) RunEnvironment.getInstance().getParameters().getValue("dikesAllowed");
+  public static boolean dikesAllowed() {
+	  return parameters().isDikesAllowed();
   }
   
-  public static Boolean cooperationAllowed() {
-	  return (Boolean) RunEnvironment.getInstance().getParameters().getValue("cooperationAllowed");
+  public static boolean cooperationAllowed() {
+	  return parameters().isCooperationAllowed();
   }
   
   public static String costEffectivenessMetric() {
-	  return (String) RunEnvironment.getInstance().getParameters().getValue("costEffectivenessMetric");
+	  return parameters().getCostEffectivenessMetric().name();
   }
   
-  public static Integer numberOfLastInflows() {
-	  return (Integer) RunEnvironment.getInstance().getParameters().getValue("numberOfLastInflows");
+  public static int numberOfLastInflows() {
+	  return parameters().getNumberOfLastInflows();
   }
-}
 
+  public static boolean parallelRivers() {
+	  return parameters().isParallelRivers();
+  }
+
+  /**
+   * @return the parameters of the current run
+   */
+  public static RheinParameters parameters() {
+	  return model().getParameters();
+  }
+
+  /**
+   * Takes a snapshot of the parameters of the current run and keeps it up to
+   * date.
+   * 
+   * @param p
+   * @return the snapshot
+   */
+  public static RheinParameters captureParameters(Parameters p) {
+	  return model().captureParameters(p);
+  }
+}
@@ -0,0 +1,609 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.essentials.RepastEssentials;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.space.graph.Network;
+import cern.jet.random.engine.MersenneTwister;
+import cern.jet.random.engine.RandomEngine;
+
+
+/**
+ * Everything belonging to one simulation run: its parameters, its random
+ * numbers, its networks and what is derived from them, and its logs.
+ *
+ * Several models may run side by side in one JVM. A thread works for the model
+ * {@link #bind() bound} to it, and {@link RheinHelper} answers for that model.
+ * A thread that never bound one works for the model created last, which is all
+ * a single run needs; while more than one model is running, such a thread is
+ * an error. A model runs from its creation until it is {@link #retire()
+ * retired}, by the end of its {@link Simulation} or by the next Repast run.
+ * The schedulers bind their model whenever they are stepped, and
+ * {@link Workers} binds the model of the submitting thread for every task.
+ *
+ * The compiled rules are not part of a model, they are shared by all of them
+ * (see {@link DroolsDecisionEngine#getRuleBase()}). So is the output of the
+ * {@link Trace}, which the parameters of the model created last configure; the
+ * trace level, however, is the model's own.
+ *
+ * @author mlunzena
+ *
+ */
+public class RheinModel {
+
+
+  /**
+   * Names the way {@link #newRandomEngine(String)} seeds its generators. It
+   * has to change whenever that does, as it keys what was generated from them
+   * and stored, see {@link Hydrology}.
+   */
+  public static final String SEEDING = "sha1(seed,name)";
+
+
+  private static final ThreadLocal<RheinModel> bound = new ThreadLocal<RheinModel>();
+
+
+  private static volatile RheinModel last;
+
+
+  /**
+   * The models created and not retired yet, guarded by the class.
+   */
+  private static final List<RheinModel> live = new ArrayList<RheinModel>();
+
+
+  /**
+   * The number of {@link #live} models, for the threads without a model.
+   */
+  private static volatile int running;
+
+
+  /**
+   * @return the model of the current thread
+   * @throws IllegalStateException
+   *           if no model is bound to the thread and several are running, so
+   *           that the thread cannot tell which one it works for
+   */
+  public static RheinModel current() {
+    RheinModel model = bound.get();
+    if (model == null) {
+      if (running > 1) {
+        throw new IllegalStateException("thread "
+            + Thread.currentThread().getName() + " has no model bound, but "
+            + running + " models are running");
+      }
+      model = last;
+      if (model == null) {
+        model = createDefault();
+      }
+    }
+    return model;
+  }
+
+
+  /**
+   * Makes the current thread forget its model, e.g. when a worker goes back to
+   * its pool.
+   */
+  public static void unbind() {
+    bound.remove();
+  }
+
+
+  /**
+   * @return the trace level of the model of the current thread, or
+   *         <code>Integer.MAX_VALUE</code> if there is none, so that the
+   *         {@link Trace} decides on its own; never fails
+   */
+  static int traceLevel() {
+    RheinModel model = bound.get();
+    if (model == null) {
+      model = last;
+    }
+    return model == null ? Integer.MAX_VALUE : model.traceLevel;
+  }
+
+
+  /**
+   * Points the trace at the output the parameters ask for, at the highest
+   * level any running model needs.
+   *
+   * @param p
+   *          the parameters of a model about to run
+   */
+  private static synchronized void configureTrace(RheinParameters p) {
+    int highest = p.getTraceLevel().ordinal();
+    for (RheinModel model : live) {
+      highest = Math.max(highest, model.traceLevel);
+    }
+    Trace.configure(Trace.Level.values()[highest], p.getTraceFormat(), p
+        .getTraceFile());
+  }
+
+
+  private static synchronized void register(RheinModel model) {
+    live.add(model);
+    running = live.size();
+    last = model;
+  }
+
+
+  /**
+   * For threads asking before any model was created, e.g. when a parameter is
+   * looked at before the context is built.
+   */
+  private static synchronized RheinModel createDefault() {
+    if (last == null) {
+      new RheinModel(RunEnvironment.getInstance().getParameters());
+    }
+    return last;
+  }
+
+
+  private final ConstructionLog constructionLog;
+
+
+  private final Convergence convergence;
+
+
+  private final PropertyChanges.Pending propertyChanges = new PropertyChanges.Pending();
+
+
+  private DownstreamIndex downstreamIndex;
+
+
+  private volatile Ownership ownership;
+
+
+  private volatile RheinParameters parameters;
+
+
+  private PropertyChangeListener parametersListener;
+
+
+  private Network<Object> riverNet;
+
+
+  private final RuleStatistics ruleStatistics;
+
+
+  /**
+   * The ordinal of the trace level of this run.
+   */
+  private volatile int traceLevel;
+
+
+  private int seed;
+
+
+  private SegmentStore segmentStore;
+
+
+  /**
+   * The stream of the run everything draws from unless it has one of its own.
+   */
+  private RandomStream shared;
+
+
+  /**
+   * The named streams, see {@link #stream(String)}.
+   */
+  private final Map<String, RandomStream> streams = new HashMap<String, RandomStream>();
+
+
+  private Network<Object> stewardRiverNet;
+
+
+  /**
+   * The tick of a run not scheduled by Repast, <code>NaN</code> otherwise.
+   */
+  private volatile double tick = Double.NaN;
+
+
+  private Parameters watchedParameters;
+
+
+  /**
+   * Creates a model whose parameters follow the given ones.
+   *
+   * @param p
+   */
+  public RheinModel(Parameters p) {
+    this(p, null);
+  }
+
+
+  /**
+   * Creates a model with fixed parameters.
+   *
+   * @param p
+   */
+  public RheinModel(RheinParameters p) {
+    this(null, p);
+  }
+
+
+  private RheinModel(Parameters watched, RheinParameters p) {
+    if (watched != null) {
+      // a run before this one no longer needs to follow them
+      RheinModel previous = last;
+      if (previous != null) {
+        previous.unwatch(watched);
+        previous.retire();
+      }
+      p = captureParameters(watched);
+    } else {
+      setParameters(p);
+    }
+    init(p.getRheinHelperSeed());
+    constructionLog = new ConstructionLog(p);
+    convergence = new Convergence(p);
+    ruleStatistics = new RuleStatistics(p);
+    register(this);
+  }
+
+
+  /**
+   * Makes this the model of the current thread.
+   */
+  public void bind() {
+    bound.set(this);
+  }
+
+
+  /**
+   * Takes a snapshot of the parameters of the run and keeps it up to date.
+   *
+   * @param p
+   * @return the snapshot
+   */
+  public synchronized RheinParameters captureParameters(final Parameters p) {
+    if (p != watchedParameters) {
+      if (watchedParameters != null) {
+        watchedParameters.removePropertyChangeListener(parametersListener);
+      }
+      parametersListener = new PropertyChangeListener() {
+
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+          captureParameters(p);
+        }
+      };
+      p.addPropertyChangeListener(parametersListener);
+      watchedParameters = p;
+    }
+    setParameters(RheinParameters.from(p));
+    return parameters;
+  }
+
+
+  /**
+   * @return the log of the constructions of this run
+   */
+  public ConstructionLog getConstructionLog() {
+    return constructionLog;
+  }
+
+
+  /**
+   * @return what decides whether this run ends early
+   */
+  public Convergence getConvergence() {
+    return convergence;
+  }
+
+
+  /**
+   * @return the index of the downstream chains
+   */
+  public synchronized DownstreamIndex getDownstreamIndex() {
+    if (downstreamIndex == null) {
+      downstreamIndex = new DownstreamIndex(getRiverNetwork(),
+          getStewardRiverNetwork(), getSegmentStore());
+    }
+    return downstreamIndex;
+  }
+
+
+  /**
+   * @return who looks after which segments
+   */
+  public Ownership getOwnership() {
+    Ownership current = ownership;
+    if (current == null) {
+      synchronized (this) {
+        if (ownership == null) {
+          ownership = new Ownership(getStewardRiverNetwork());
+        }
+        current = ownership;
+      }
+    }
+    return current;
+  }
+
+
+  /**
+   * @return the changes of the beans of this run waiting to be delivered
+   */
+  public PropertyChanges.Pending getPropertyChanges() {
+    return propertyChanges;
+  }
+
+
+  /**
+   * @return the current snapshot of the parameters
+   */
+  public RheinParameters getParameters() {
+    return parameters;
+  }
+
+
+  /**
+   * @return the network of the rivers, looked up in the current Repast
+   *         context unless it was set
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized Network<Object> getRiverNetwork() {
+    if (riverNet == null) {
+      return (Network<Object>) RepastEssentials
+          .FindProjection(RheinHelper.RIVER_NETWORK_NAME);
+    }
+    return riverNet;
+  }
+
+
+  /**
+   * @return the statistics of the rules of this run
+   */
+  public RuleStatistics getRuleStatistics() {
+    return ruleStatistics;
+  }
+
+
+  /**
+   * @return the store holding the state of the segments
+   */
+  public synchronized SegmentStore getSegmentStore() {
+    return segmentStore;
+  }
+
+
+  /**
+   * @return the network of the stewards and their segments, looked up in the
+   *         current Repast context unless it was set
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized Network<Object> getStewardRiverNetwork() {
+    if (stewardRiverNet == null) {
+      return (Network<Object>) RepastEssentials
+          .FindProjection(RheinHelper.STEWARD_RIVER_NETWORK_NAME);
+    }
+    return stewardRiverNet;
+  }
+
+
+  /**
+   * @return the seed of the run
+   */
+  public synchronized int getSeed() {
+    return seed;
+  }
+
+
+  /**
+   * @return the stream of the run everything draws from unless it has one of
+   *         its own
+   */
+  public synchronized RandomStream getRandom() {
+    return shared;
+  }
+
+
+  /**
+   * @return the named streams drawn from so far, see {@link #stream(String)}
+   */
+  synchronized Map<String, RandomStream> getStreams() {
+    return new HashMap<String, RandomStream>(streams);
+  }
+
+
+  /**
+   * @return the current tick of the run
+   */
+  public double getTick() {
+    double t = tick;
+    return Double.isNaN(t) ? RepastEssentials.GetTickCount() : t;
+  }
+
+
+  /**
+   * Ends the run after the current tick. A run scheduled by Repast is ended by
+   * the schedule, a {@link Simulation} asks {@link #getConvergence()} itself.
+   */
+  public void endRun() {
+    if (Double.isNaN(tick)) {
+      RunEnvironment.getInstance().endRun();
+    }
+  }
+
+
+  /**
+   * Starts over with a new seed and without any segments.
+   *
+   * @param seed
+   */
+  public synchronized void init(int seed) {
+    this.seed = seed;
+    segmentStore = new SegmentStore();
+    downstreamIndex = null;
+    ownership = null;
+    shared = new RandomStream(new MersenneTwister(seed));
+    streams.clear();
+  }
+
+
+  /**
+   * Forces the downstream index to be rebuilt, e.g. after a segment changed its
+   * length.
+   */
+  public synchronized void invalidateDownstreamIndex() {
+    if (downstreamIndex != null) {
+      downstreamIndex.invalidate();
+    }
+  }
+
+
+  /**
+   * @param name
+   * @return a random number generator of its own for the named consumer
+   * @see RheinHelper#newRandomEngine(String)
+   */
+  public RandomEngine newRandomEngine(String name) {
+    return new MersenneTwister(mix(seed, name));
+  }
+
+
+  /**
+   * Hashes the seed of the run and the name of a consumer into the seed of
+   * its generator. A SHA-1 digest mixes both completely, so that unlike with
+   * <code>31 * seed + name.hashCode()</code> no name at one seed gets the
+   * numbers of another name at another seed.
+   */
+  private static int mix(int seed, String name) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+      digest.update(new byte[] { (byte) (seed >>> 24), (byte) (seed >>> 16),
+          (byte) (seed >>> 8), (byte) seed });
+      digest.update(name.getBytes("UTF-8"));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+    byte[] hash = digest.digest();
+    return ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16)
+        | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+  }
+
+
+  /**
+   * Returns the stream for one purpose, e.g. <code>topology</code> or the
+   * retention basins offered to a segment.
+   *
+   * With <code>commonRandomNumbers</code> set, every purpose has a stream of
+   * its own, seeded from the seed of the run and its name. What is drawn for
+   * one purpose then does not depend on what is drawn for the others, so two
+   * runs with the same seed but different policies see the same random
+   * topology and the same basin offers. Otherwise all purposes share the
+   * stream of {@link #getRandom()}, as they always did.
+   *
+   * @param name
+   * @return the stream
+   */
+  public synchronized RandomStream stream(String name) {
+    if (!parameters.isCommonRandomNumbers()) {
+      return shared;
+    }
+    RandomStream stream = streams.get(name);
+    if (stream == null) {
+      stream = new RandomStream(newRandomEngine(name));
+      streams.put(name, stream);
+    }
+    return stream;
+  }
+
+
+  /**
+   * Goes on with the random numbers of a {@link Checkpoint}.
+   *
+   * @param seed
+   * @param shared
+   * @param streams
+   */
+  synchronized void restoreRandom(int seed, RandomStream shared,
+      Map<String, RandomStream> streams) {
+    this.seed = seed;
+    this.shared = shared;
+    this.streams.clear();
+    this.streams.putAll(streams);
+  }
+
+
+  /**
+   * Uses the given networks instead of looking them up in the Repast context.
+   *
+   * @param riverNet
+   * @param stewardRiverNet
+   */
+  public synchronized void setNetworks(Network<Object> riverNet,
+      Network<Object> stewardRiverNet) {
+    this.riverNet = riverNet;
+    this.stewardRiverNet = stewardRiverNet;
+    downstreamIndex = null;
+    ownership = null;
+  }
+
+
+  /**
+   * Sets the tick of a run that is not scheduled by Repast.
+   *
+   * @param tick
+   */
+  public void setTick(double tick) {
+    this.tick = tick;
+  }
+
+
+  /**
+   * Ends the run of this model. Threads bound to it may go on using it, but
+   * it no longer counts as running for the threads without a model, and its
+   * trace level no longer counts.
+   */
+  public void retire() {
+    synchronized (RheinModel.class) {
+      if (!live.remove(this)) {
+        return;
+      }
+      running = live.size();
+      if (last == this && !live.isEmpty()) {
+        last = live.get(live.size() - 1);
+      }
+      int highest = Trace.Level.OFF.ordinal();
+      for (RheinModel model : live) {
+        highest = Math.max(highest, model.traceLevel);
+      }
+      Trace.setLevel(Trace.Level.values()[highest]);
+    }
+  }
+
+
+  private synchronized void unwatch(Parameters p) {
+    if (p == watchedParameters) {
+      watchedParameters.removePropertyChangeListener(parametersListener);
+      watchedParameters = null;
+    }
+  }
+
+
+  private void setParameters(RheinParameters p) {
+    parameters = p;
+    traceLevel = p.getTraceLevel().ordinal();
+    configureTrace(p);
+  }
+}
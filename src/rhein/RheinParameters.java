@@ -0,0 +1,365 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.Map;
+
+import repast.simphony.parameter.Parameters;
+
+
+/**
+ * Immutable, typed snapshot of the run parameters.
+ *
+ * Looking up a value in the Repast {@link Parameters} means a map lookup and a
+ * cast each time, which adds up in the tick loop and in the rule conditions.
+ * The snapshot is taken once per run, see
+ * {@link RheinModel#captureParameters(Parameters)}, and retaken whenever a
+ * parameter changes.
+ *
+ * @author mlunzena
+ *
+ */
+public final class RheinParameters {
+
+
+  /**
+   * Where the values come from.
+   */
+  private static abstract class Values {
+
+
+    abstract boolean contains(String name);
+
+
+    abstract Object get(String name);
+
+
+    boolean getBoolean(String name, Boolean defaultValue) {
+      Object value = getValue(name, defaultValue);
+      return value instanceof String ? Boolean.parseBoolean((String) value)
+          : (Boolean) value;
+    }
+
+
+    Number getNumber(String name) {
+      return getNumber(name, null);
+    }
+
+
+    Number getNumber(String name, Number defaultValue) {
+      Object value = getValue(name, defaultValue);
+      return value instanceof String ? Double.valueOf((String) value)
+          : (Number) value;
+    }
+
+
+    String getString(String name, String defaultValue) {
+      return String.valueOf(getValue(name, defaultValue));
+    }
+
+
+    /**
+     * @return the value of a parameter, the default if it is not defined
+     */
+    private Object getValue(String name, Object defaultValue) {
+      if (!contains(name)) {
+        if (defaultValue == null) {
+          throw new IllegalArgumentException("parameter " + name
+              + " is missing");
+        }
+        return defaultValue;
+      }
+      return get(name);
+    }
+  }
+
+
+  /**
+   * Reads all the parameters.
+   *
+   * @param p
+   * @return the snapshot
+   */
+  public static RheinParameters from(final Parameters p) {
+    return new RheinParameters(new Values() {
+
+
+      @Override
+      boolean contains(String name) {
+        return p.getSchema().contains(name);
+      }
+
+
+      @Override
+      Object get(String name) {
+        return p.getValue(name);
+      }
+    });
+  }
+
+
+  /**
+   * Reads all the parameters from a map, e.g. when running without Repast.
+   * The values may be given as strings as well.
+   *
+   * @param values
+   * @return the snapshot
+   */
+  public static RheinParameters from(final Map<String, ?> values) {
+    return new RheinParameters(new Values() {
+
+
+      @Override
+      boolean contains(String name) {
+        return values.containsKey(name);
+      }
+
+
+      @Override
+      Object get(String name) {
+        return values.get(name);
+      }
+    });
+  }
+
+
+  private final String constructionLog;
+
+
+  private final String contextBuilder;
+
+
+  private final boolean commonRandomNumbers;
+
+
+  private final boolean cooperationAllowed;
+
+
+  private final FloodProtection.Metric costEffectivenessMetric;
+
+
+  private final DecisionEngine.Kind decisionEngine;
+
+
+  private final double dikeBaseCost;
+
+
+  private final double dikeCostPerCubicMeter;
+
+
+  private final boolean dikesAllowed;
+
+
+  private final int endAt;
+
+
+  private final String hydrology;
+
+
+  private final int numberOfLastInflows;
+
+
+  private final boolean parallelRivers;
+
+
+  private final boolean parallelStewards;
+
+
+  private final int rheinHelperSeed;
+
+
+  private final String ruleStatistics;
+
+
+  private final int stewardPayment;
+
+
+  private final int stopAfter;
+
+
+  private final String stopCriteria;
+
+
+  private final String stopLog;
+
+
+  private final int stewardStartBalance;
+
+
+  private final String traceFile;
+
+
+  private final Trace.Format traceFormat;
+
+
+  private final Trace.Level traceLevel;
+
+
+  private RheinParameters(Values v) {
+    constructionLog = v.getString("constructionLog", "");
+    contextBuilder = v.getString("contextBuilder", null);
+    commonRandomNumbers = v.getBoolean("commonRandomNumbers", Boolean.FALSE);
+    cooperationAllowed = v.getBoolean("cooperationAllowed", null);
+    costEffectivenessMetric = FloodProtection.Metric.valueOf(v.getString(
+        "costEffectivenessMetric", null));
+    decisionEngine = DecisionEngine.Kind.valueOf(v.getString("decisionEngine",
+        "DROOLS"));
+    dikeBaseCost = v.getNumber("dikeBaseCost").doubleValue();
+    dikeCostPerCubicMeter = v.getNumber("dikeCostPerCubicMeter").doubleValue();
+    dikesAllowed = v.getBoolean("dikesAllowed", null);
+    endAt = v.getNumber("endAt").intValue();
+    hydrology = v.getString("hydrology", "");
+    numberOfLastInflows = v.getNumber("numberOfLastInflows").intValue();
+    parallelRivers = v.getBoolean("parallelRivers", Boolean.FALSE);
+    parallelStewards = v.getBoolean("parallelStewards", Boolean.FALSE);
+    rheinHelperSeed = v.getNumber("rheinHelperSeed").intValue();
+    ruleStatistics = v.getString("ruleStatistics", "");
+    stewardPayment = v.getNumber("stewardPayment").intValue();
+    stewardStartBalance = v.getNumber("stewardStartBalance").intValue();
+    stopAfter = v.getNumber("stopAfter", Integer.valueOf(10)).intValue();
+    stopCriteria = v.getString("stopCriteria", "");
+    stopLog = v.getString("stopLog", "");
+    traceFile = v.getString("traceFile", "");
+    traceFormat = Trace.Format.valueOf(v.getString("traceFormat", "TEXT"));
+    traceLevel = Trace.Level.valueOf(v.getString("traceLevel", "DEBUG"));
+  }
+
+
+  public String getConstructionLog() {
+    return constructionLog;
+  }
+
+
+  public String getContextBuilder() {
+    return contextBuilder;
+  }
+
+
+  public FloodProtection.Metric getCostEffectivenessMetric() {
+    return costEffectivenessMetric;
+  }
+
+
+  public DecisionEngine.Kind getDecisionEngine() {
+    return decisionEngine;
+  }
+
+
+  public double getDikeBaseCost() {
+    return dikeBaseCost;
+  }
+
+
+  public double getDikeCostPerCubicMeter() {
+    return dikeCostPerCubicMeter;
+  }
+
+
+  public int getEndAt() {
+    return endAt;
+  }
+
+
+  /**
+   * @return the directory of the pre-generated inflows, empty if the sources
+   *         draw them as they go
+   * @see Hydrology
+   */
+  public String getHydrology() {
+    return hydrology;
+  }
+
+
+  public int getNumberOfLastInflows() {
+    return numberOfLastInflows;
+  }
+
+
+  public int getRheinHelperSeed() {
+    return rheinHelperSeed;
+  }
+
+
+  public String getRuleStatistics() {
+    return ruleStatistics;
+  }
+
+
+  public int getStewardPayment() {
+    return stewardPayment;
+  }
+
+
+  public int getStewardStartBalance() {
+    return stewardStartBalance;
+  }
+
+
+  /**
+   * @return for how many ticks in a row a stop criterion has to hold
+   * @see Convergence
+   */
+  public int getStopAfter() {
+    return stopAfter;
+  }
+
+
+  /**
+   * @return the names of the stop criteria, separated by commas
+   * @see Convergence
+   */
+  public String getStopCriteria() {
+    return stopCriteria;
+  }
+
+
+  public String getStopLog() {
+    return stopLog;
+  }
+
+
+  public String getTraceFile() {
+    return traceFile;
+  }
+
+
+  public Trace.Format getTraceFormat() {
+    return traceFormat;
+  }
+
+
+  public Trace.Level getTraceLevel() {
+    return traceLevel;
+  }
+
+
+  /**
+   * @return whether every purpose draws from a random stream of its own
+   * @see RheinModel#stream(String)
+   */
+  public boolean isCommonRandomNumbers() {
+    return commonRandomNumbers;
+  }
+
+
+  public boolean isCooperationAllowed() {
+    return cooperationAllowed;
+  }
+
+
+  public boolean isDikesAllowed() {
+    return dikesAllowed;
+  }
+
+
+  public boolean isParallelRivers() {
+    return parallelRivers;
+  }
+
+
+  public boolean isParallelStewards() {
+    return parallelStewards;
+  }
+}
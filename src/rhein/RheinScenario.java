@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.Vector;
+
+import repast.simphony.space.graph.Network;
+
+
+/**
+ * The Rhine from Basel to the sea, its main tributaries and three stewards.
+ *
+ * @author mlunzena
+ *
+ */
+public class RheinScenario extends Scenario {
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.Scenario#build(rhein.RheinParameters, rhein.Scenario.Space,
+   * repast.simphony.space.graph.Network, repast.simphony.space.graph.Network,
+   * repast.simphony.space.graph.Network)
+   */
+  @Override
+  public void build(RheinParameters p, Space space, Network<Object> riversNet,
+      Network<Object> stewardsRiversNet, Network<Object> stewardsNet) {
+
+    // //////////////////////////////
+    //
+    // RIVERS
+    //
+    // //////////////////////////////
+
+    Source basel = new Source("Rhine (Basel)", 3817, 636);
+    Source neckar = new Source("Neckar", 2017, 336);
+    Source main = new Source("Main", 1507, 251);
+    Source lahn_nahe = new Source("Lahn/Nahe", 1380, 230);
+    Source mosel = new Source("Mosel", 3127, 521);
+    Source lippe_ruhr_sieg = new Source("Lippe/Ruhr/Sieg", 1732, 289);
+
+    space.add(basel);
+    space.add(neckar);
+    space.add(main);
+    space.add(lahn_nahe);
+    space.add(mosel);
+    space.add(lippe_ruhr_sieg);
+
+    space.moveTo(basel, 0, 35);
+    space.moveTo(neckar, 0, 30);
+    space.moveTo(main, 0, 25);
+    space.moveTo(lahn_nahe, 0, 20);
+    space.moveTo(mosel, 0, 15);
+    space.moveTo(lippe_ruhr_sieg, 0, 10);
+    
+    Vector<RetentionBasin> retentionBasins;
+    
+    Segment upper_rhine_1 = new Segment("Oberrhein (Basel)", 256, 5000, 756);
+    retentionBasins = new Vector<RetentionBasin>();
+    retentionBasins.add(new RetentionBasin(90, 4));
+    retentionBasins.add(new RetentionBasin(139, 4));
+    retentionBasins.add(new RetentionBasin(58, 4));
+    retentionBasins.add(new RetentionBasin(71, 4));
+    retentionBasins.add(new RetentionBasin(200, 4));
+    retentionBasins.add(new RetentionBasin(227, 4));
+    retentionBasins.add(new RetentionBasin(137, 4));
+    retentionBasins.add(new RetentionBasin(52, 4));
+    upper_rhine_1.setPossibleRetentionBasins(retentionBasins);
+    
+    Segment upper_rhine_2 = new Segment("Oberrhein (Neckar)", 50, 6000, 0);
+    Segment upper_rhine_3 = new Segment("Oberrhein (Main)", 66, 7200, 0);
+    retentionBasins = new Vector<RetentionBasin>();
+    retentionBasins.add(new RetentionBasin(65, 4));
+    upper_rhine_3.setPossibleRetentionBasins(retentionBasins);
+
+    Segment lower_rhine_1 = new Segment("Niederrhein", 54, 8000, 0);
+    lower_rhine_1.setMaxDikeCapacity(8000);
+    lower_rhine_1.setNaturalDike(true);
+
+    Segment lower_rhine_2 = new Segment("Niederrhein (Lahn/Mosel)", 110, 10000, 0);
+    lower_rhine_2.setMaxDikeCapacity(10000);
+    lower_rhine_2.setNaturalDike(true);
+    
+    Segment lower_rhine_3 = new Segment("Niederrhein (Sieg/Ruhr/Lippe)", 142, 13300, 0);
+    retentionBasins = new Vector<RetentionBasin>();
+    retentionBasins.add(new RetentionBasin(26, 4));
+    retentionBasins.add(new RetentionBasin(170, 4));
+    retentionBasins.add(new RetentionBasin(197, 4));
+    retentionBasins.add(new RetentionBasin(100, 4));
+    lower_rhine_3.setPossibleRetentionBasins(retentionBasins);
+
+    Segment rijn = new Segment("Rijn", 148, 15000, 0);
+
+    space.add(upper_rhine_1);
+    space.add(upper_rhine_2);
+    space.add(upper_rhine_3);
+    space.add(lower_rhine_1);
+    space.add(lower_rhine_2);
+    space.add(lower_rhine_3);
+    space.add(rijn);
+
+    space.moveTo(upper_rhine_1, 10, 39);
+    space.moveTo(upper_rhine_2, 10, 32);
+    space.moveTo(upper_rhine_3, 10, 25);
+    space.moveTo(lower_rhine_1, 10, 21);
+    space.moveTo(lower_rhine_2, 10, 14);
+    space.moveTo(lower_rhine_3, 10,  7);
+    space.moveTo(rijn,          10,  0);
+
+    riversNet.addEdge(upper_rhine_1, upper_rhine_2);
+    riversNet.addEdge(upper_rhine_2, upper_rhine_3);
+    riversNet.addEdge(upper_rhine_3, lower_rhine_1);
+
+    riversNet.addEdge(lower_rhine_1, lower_rhine_2);
+    riversNet.addEdge(lower_rhine_2, lower_rhine_3);
+    riversNet.addEdge(lower_rhine_3, rijn);
+
+
+    riversNet.addEdge(basel, upper_rhine_1);
+    riversNet.addEdge(neckar, upper_rhine_2);
+    riversNet.addEdge(main, upper_rhine_3);
+
+    riversNet.addEdge(lahn_nahe, lower_rhine_2);
+    riversNet.addEdge(mosel, lower_rhine_2);
+    riversNet.addEdge(lippe_ruhr_sieg, lower_rhine_3);
+
+    RiverScheduler riverScheduler = new RiverScheduler();
+    space.add(riverScheduler);
+
+    space.moveTo(riverScheduler, 39, 0);
+
+
+    // //////////////////////////////
+    //
+    // STEWARDS
+    //
+    // //////////////////////////////
+
+    Steward s1 = new Steward("upper_rhine", 200000);
+    Steward s2 = new Steward("lower_rhine", 200000);
+    Steward s3 = new Steward("rijn", 200000);
+
+    space.add(s1);
+    space.add(s2);
+    space.add(s3);
+
+    space.moveTo(s1, 35, 39);
+    space.moveTo(s2, 35, 21);
+    space.moveTo(s3, 35,  0);
+
+    stewardsRiversNet.addEdge(s1, upper_rhine_1);
+    stewardsRiversNet.addEdge(s1, upper_rhine_2);
+    stewardsRiversNet.addEdge(s1, upper_rhine_3);
+    stewardsRiversNet.addEdge(s2, lower_rhine_1);
+    stewardsRiversNet.addEdge(s2, lower_rhine_2);
+    stewardsRiversNet.addEdge(s2, lower_rhine_3);
+    stewardsRiversNet.addEdge(s3, rijn);
+
+    StewardScheduler stewardScheduler = new StewardScheduler();
+    space.add(stewardScheduler);
+
+    space.moveTo(stewardScheduler, 39, 1);
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.Scenario#getHeight()
+   */
+  @Override
+  public int getHeight() {
+    return 40;
+  }
+
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see rhein.Scenario#getWidth()
+   */
+  @Override
+  public int getWidth() {
+    return 40;
+  }
+}
@@ -1,15 +1,12 @@
 package rhein;
 
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
-import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.space.graph.Network;
 import repast.simphony.space.graph.RepastEdge;
 import repast.simphony.space.projection.ProjectionEvent;
@@ -24,46 +21,34 @@ public class RiverScheduler {
 
 
   /**
-   * The network projection where to search for river segments.
+   * Levels smaller than this are not split up between the workers.
    */
-  private Network<Object> riverNet;
+  private static final int MIN_CHUNK = 256;
 
 
   /**
-   *
+   * The run this scheduler belongs to.
    */
-  private Vector<AbstractSegment> segments;
+  private final RheinModel model = RheinModel.current();
 
 
   /**
-   *
+   * The network projection where to search for river segments.
    */
-  private Network<Object> stewardRiverNet;
+  private Network<Object> riverNet;
 
 
   /**
-   * @param it
-   * @return
+   * The segments of the river network in topological order.
    */
-  private Vector<AbstractSegment> filterSegments(Iterable<?> it) {
-    Vector<AbstractSegment> segments = new Vector<AbstractSegment>();
-    for (Object segment : it) {
-      if (segment instanceof AbstractSegment) {
-        segments.add((AbstractSegment) segment);
-      }
-    }
+  private TopologicalOrder order;
 
-    // sort them by name
-    Collections.sort(segments, new Comparator<AbstractSegment>() {
 
-
-      @Override
-      public int compare(AbstractSegment o1, AbstractSegment o2) {
-        return o1.getName().compareTo(o2.getName());
-      }
-    });
-    return segments;
-  }
+  /**
+   * The river network compiled into arrays; <code>null</code> whenever the
+   * network has changed since the last compilation.
+   */
+  private RiverTopology topology;
 
 
   /**
@@ -72,12 +57,21 @@ public class RiverScheduler {
   @ScheduledMethod(start = 0)
   public void initialize() {
 
-    riverNet = RheinHelper.getRiverNetwork();
-
-    stewardRiverNet = RheinHelper.getStewardRiverNetwork();
+    model.bind();
+    riverNet = model.getRiverNetwork();
 
     // get initial segments
-    segments = sortSegments();
+    order = new TopologicalOrder(riverNet);
+    topology = compileTopology();
+
+    // replay pre-generated inflows, if there are any
+    List<Source> sources = new ArrayList<Source>();
+    for (int i = 0; i < topology.size(); i++) {
+      if (topology.get(i) instanceof Source) {
+        sources.add((Source) topology.get(i));
+      }
+    }
+    Hydrology.attach(sources, model.getParameters());
 
     // listen to network
     riverNet.addProjectionListener(new ProjectionListener<Network<Object>>() {
@@ -85,9 +79,25 @@ public class RiverScheduler {
 
       @Override
       public void projectionEventOccurred(ProjectionEvent<Network<Object>> evt) {
-        if (evt.getType() == ProjectionEvent.Type.EDGE_ADDED
-            || evt.getType() == ProjectionEvent.Type.EDGE_REMOVED) {
-          segments = sortSegments();
+        switch (evt.getType()) {
+        case EDGE_ADDED:
+        case EDGE_REMOVED:
+          edgeChanged(evt);
+          break;
+        case OBJECT_ADDED:
+          if (evt.getSubject() instanceof AbstractSegment) {
+            order.segmentAdded((AbstractSegment) evt.getSubject());
+            topology = null;
+          }
+          break;
+        case OBJECT_REMOVED:
+          if (evt.getSubject() instanceof AbstractSegment) {
+            order.segmentRemoved((AbstractSegment) evt.getSubject());
+            topology = null;
+          }
+          break;
+        default:
+          break;
         }
       }
     });
@@ -95,43 +105,46 @@ public class RiverScheduler {
 
 
   /**
-   * @return
+   * @param evt
    */
-  public Vector<AbstractSegment> sortSegments() {
+  private void edgeChanged(ProjectionEvent<Network<Object>> evt) {
 
-    HashMap<AbstractSegment, Integer> d = new HashMap<AbstractSegment, Integer>();
-    Stack<AbstractSegment> c = new Stack<AbstractSegment>();
+    topology = null;
 
-    for (AbstractSegment agent : filterSegments(riverNet.getNodes())) {
-      if (riverNet.getOutDegree(agent) > 1) {
-        throw new RuntimeException("more than one outflow..");
-      }
-      d.put((AbstractSegment) agent, riverNet.getInDegree(agent));
-      if (riverNet.getInDegree(agent) == 0) {
-        c.add((AbstractSegment) agent);
-      }
+    if (!(evt.getSubject() instanceof RepastEdge<?>)) {
+      order.invalidate();
+      return;
     }
 
-    int steps = 0;
-    Vector<AbstractSegment> segments = new Vector<AbstractSegment>();
-    while (c.size() > 0) {
-      AbstractSegment i = c.pop();
-      segments.add(i);
-      steps++;
-      for (Object agent : riverNet.getSuccessors(i)) {
-        Integer value = d.get(agent);
-        d.put((AbstractSegment) agent, --value);
-        if (value == 0) {
-          c.add((AbstractSegment) agent);
-        }
-      }
+    RepastEdge<?> edge = (RepastEdge<?>) evt.getSubject();
+    if (!(edge.getSource() instanceof AbstractSegment)
+        || !(edge.getTarget() instanceof AbstractSegment)) {
+      return;
     }
 
-    if (d.size() != steps) {
-      throw new RuntimeException("there is a cycle");
+    AbstractSegment source = (AbstractSegment) edge.getSource();
+    AbstractSegment target = (AbstractSegment) edge.getTarget();
+    if (evt.getType() == ProjectionEvent.Type.EDGE_ADDED) {
+      order.edgeAdded(source, target);
+    } else {
+      order.edgeRemoved(source, target);
     }
+  }
+
 
-    return segments;
+  /**
+   * @return the river network frozen in topological order
+   */
+  public RiverTopology compileTopology() {
+    return new RiverTopology(riverNet, order.getSegments());
+  }
+
+
+  /**
+   * @return
+   */
+  public Vector<AbstractSegment> sortSegments() {
+    return new Vector<AbstractSegment>(order.getSegments());
   }
 
 
@@ -141,41 +154,85 @@ public class RiverScheduler {
   @ScheduledMethod(start = 1, interval = 1, priority = 100)
   public void step() {
 
-    System.out.format("[%.0f] %s\n", RepastEssentials.GetTickCount(), getClass().getSimpleName());
+    model.bind();
+    if (Trace.isInfo()) {
+      Trace.info("[%.0f] %s\n", model.getTick(), getClass().getSimpleName());
+    }
 
-    for (AbstractSegment segment : segments) {
+    if (topology == null) {
+      topology = compileTopology();
+    }
 
-      feedSegment(segment);
+    // let the water flow
+    SegmentStore store = model.getSegmentStore();
+    store.beginPhase();
+    try {
+      if (RheinHelper.parallelRivers()) {
+        consumeParallel();
+      } else {
+        for (int i = 0; i < topology.size(); i++) {
+          topology.get(i).consume(topology.sumDischarges(i));
+        }
+      }
+    } finally {
+      store.endPhase();
+    }
+
+    // the rest draws from the shared random generator and has to stay in order
+    for (int i = 0; i < topology.size(); i++) {
+
+      AbstractSegment segment = topology.get(i);
 
       if (segment instanceof Segment) {
 
         // TODO sollte das in einer eigenen klasse stecken?
-        payStewards(segment);
+        payStewards((Segment) segment);
 
         ((Segment) segment).generatePossibleRetentionBasin();
       }
 
-      System.out.format(" Segment '%s'\n", segment);
+      if (Trace.isDebug()) {
+        Trace.debug(" Segment '%s'\n", segment);
+      }
 
     }
+
+    model.getPropertyChanges().flush();
+    Trace.flush();
   }
 
 
   /**
-   * @param segment
+   * Lets the water flow level by level. The segments of a level only depend on
+   * lower levels, so each level is split into chunks consumed by the workers.
+   * As every source draws from its own random stream, the outcome is the same
+   * as in the sequential case.
    */
-  private void payStewards(AbstractSegment segment) {
-    int stewardPayment = (Integer) RunEnvironment.getInstance().getParameters().getValue("stewardPayment");
-    Steward steward = null;
-    for (RepastEdge<?> edge : stewardRiverNet.getEdges(segment)) {
-      if (edge.getSource() instanceof Steward) {
-        steward = (Steward) edge.getSource();
-      } else if (edge.getTarget() instanceof Steward) {
-        steward = (Steward) edge.getTarget();
-      } else {
-        continue;
+  private void consumeParallel() {
+
+    for (int l = 0; l < topology.getLevelCount(); l++) {
+
+      final int level = l;
+      int size = topology.getLevelSize(level);
+      int chunks = Math.min(Workers.getThreads(), (size + MIN_CHUNK - 1)
+          / MIN_CHUNK);
+
+      List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+      for (int c = 0; c < chunks; c++) {
+        final int from = c * size / chunks;
+        final int to = (c + 1) * size / chunks;
+        tasks.add(new Callable<Object>() {
+
+
+          @Override
+          public Object call() {
+            topology.consumeLevel(level, from, to);
+            return null;
+          }
+        });
       }
-      steward.depositMoney(stewardPayment);
+
+      Workers.runAll(tasks);
     }
   }
 
@@ -183,7 +240,10 @@ public class RiverScheduler {
   /**
    * @param segment
    */
-  private void feedSegment(AbstractSegment segment) {
-    segment.consume(filterSegments(riverNet.getPredecessors(segment)));
+  private void payStewards(Segment segment) {
+    Steward steward = RheinHelper.getOwnership().getSteward(segment);
+    if (steward != null) {
+      steward.depositMoney(RheinHelper.parameters().getStewardPayment());
+    }
   }
 }
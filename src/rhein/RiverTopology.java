@@ -0,0 +1,209 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import repast.simphony.space.graph.Network;
+
+
+/**
+ * A frozen, array based view of the river network.
+ *
+ * The segments are stored in topological order and the predecessors of every
+ * segment are kept in compressed sparse row form: the predecessors of the
+ * segment at position <code>i</code> are found at
+ * <code>predecessors[offsets[i]] .. predecessors[offsets[i + 1] - 1]</code>
+ * and are themselves positions in the topological order.
+ *
+ * @author mlunzena
+ *
+ */
+public class RiverTopology {
+
+
+  /**
+   * The segments in topological order.
+   */
+  private final AbstractSegment[] segments;
+
+
+  /**
+   * Start of the predecessor range of each segment, plus a trailing sentinel.
+   */
+  private final int[] offsets;
+
+
+  /**
+   * Positions of the predecessors, grouped by segment.
+   */
+  private final int[] predecessors;
+
+
+  /**
+   * Start of each dependency level in {@link #levels}, plus a trailing
+   * sentinel.
+   */
+  private final int[] levelOffsets;
+
+
+  /**
+   * Positions of the segments grouped by dependency level. All predecessors of
+   * a segment are on lower levels, so the segments of one level do not depend
+   * on each other.
+   */
+  private final int[] levels;
+
+
+  /**
+   * Freezes the network into arrays.
+   *
+   * @param net
+   *          the river network
+   * @param order
+   *          the segments of the network in topological order
+   */
+  public RiverTopology(Network<Object> net, List<AbstractSegment> order) {
+
+    int n = order.size();
+
+    segments = order.toArray(new AbstractSegment[n]);
+
+    IdentityHashMap<AbstractSegment, Integer> positions = new IdentityHashMap<AbstractSegment, Integer>();
+    for (int i = 0; i < n; i++) {
+      positions.put(segments[i], i);
+    }
+
+    offsets = new int[n + 1];
+    int edges = 0;
+    for (int i = 0; i < n; i++) {
+      offsets[i] = edges;
+      for (Object o : net.getPredecessors(segments[i])) {
+        if (positions.containsKey(o)) {
+          edges++;
+        }
+      }
+    }
+    offsets[n] = edges;
+
+    predecessors = new int[edges];
+    for (int i = 0; i < n; i++) {
+      int k = offsets[i];
+      for (Object o : net.getPredecessors(segments[i])) {
+        Integer p = positions.get(o);
+        if (p != null) {
+          predecessors[k++] = p;
+        }
+      }
+    }
+
+    // the level of a segment is the length of the longest path reaching it
+    int[] level = new int[n];
+    int depth = 0;
+    for (int i = 0; i < n; i++) {
+      for (int k = offsets[i]; k < offsets[i + 1]; k++) {
+        level[i] = Math.max(level[i], level[predecessors[k]] + 1);
+      }
+      depth = Math.max(depth, level[i] + 1);
+    }
+
+    levelOffsets = new int[depth + 1];
+    for (int i = 0; i < n; i++) {
+      levelOffsets[level[i] + 1]++;
+    }
+    for (int l = 0; l < depth; l++) {
+      levelOffsets[l + 1] += levelOffsets[l];
+    }
+
+    levels = new int[n];
+    int[] next = levelOffsets.clone();
+    for (int i = 0; i < n; i++) {
+      levels[next[level[i]]++] = i;
+    }
+  }
+
+
+  /**
+   * @param i
+   *          a position in the topological order
+   * @return the segment at that position
+   */
+  public AbstractSegment get(int i) {
+    return segments[i];
+  }
+
+
+  /**
+   * @param i
+   *          a position in the topological order
+   * @return the number of segments flowing directly into it
+   */
+  public int getInDegree(int i) {
+    return offsets[i + 1] - offsets[i];
+  }
+
+
+  /**
+   * @return the number of dependency levels
+   */
+  public int getLevelCount() {
+    return levelOffsets.length - 1;
+  }
+
+
+  /**
+   * Lets the segments at positions <code>levels[from] .. levels[to - 1]</code>
+   * of a level consume the water of their predecessors.
+   *
+   * @param l
+   *          a dependency level
+   * @param from
+   *          first index into the level, inclusive
+   * @param to
+   *          last index into the level, exclusive
+   */
+  public void consumeLevel(int l, int from, int to) {
+    int base = levelOffsets[l];
+    for (int k = base + from, end = base + to; k < end; k++) {
+      int i = levels[k];
+      segments[i].consume(sumDischarges(i));
+    }
+  }
+
+
+  /**
+   * @param l
+   *          a dependency level
+   * @return the number of segments on that level
+   */
+  public int getLevelSize(int l) {
+    return levelOffsets[l + 1] - levelOffsets[l];
+  }
+
+
+  /**
+   * @return the number of segments
+   */
+  public int size() {
+    return segments.length;
+  }
+
+
+  /**
+   * Sums up the current discharges of all predecessors of a segment.
+   *
+   * @param i
+   *          a position in the topological order
+   * @return the water flowing into that segment
+   */
+  public int sumDischarges(int i) {
+    int sum = 0;
+    for (int k = offsets[i], end = offsets[i + 1]; k < end; k++) {
+      sum += segments[predecessors[k]].getDischarge();
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.drools.RuleBase;
+import org.drools.common.DroolsObjectInputStream;
+import org.drools.compiler.PackageBuilder;
+import org.drools.compiler.PackageBuilderConfiguration;
+import org.drools.rule.Package;
+
+
+/**
+ * Keeps the compiled rules of the stewards on disk, so that a JVM does not
+ * have to compile them again.
+ *
+ * The file name is a hash of the rule and ruleflow files, of the classes of
+ * the model the consequences are compiled against and of the Drools version,
+ * so a changed rule or model simply leads to a new file. The directory is
+ * taken from the system property <code>rhein.ruleCache</code>, by default
+ * <code>.rhein/rule-cache</code> in the home directory of the user; an empty
+ * value turns the cache off. As the cache holds code that is run, the
+ * directory and its files are only accessible by their owner. Whenever the
+ * cache cannot be read, the rules are compiled.
+ *
+ * Run {@link #main(String[])} to see how much time the cache saves.
+ *
+ * @author mlunzena
+ *
+ */
+public class RuleBaseCache {
+
+
+  private static final String[] RESOURCES = { "../Steward.drl",
+      "../ActionGeneration.rfm", "../ActionSelection.rfm" };
+
+
+  /**
+   * @param classLoader
+   * @return the compiled rules, from the cache if possible
+   */
+  public static Package getPackage(ClassLoader classLoader) {
+
+    long start = System.nanoTime();
+
+    byte[][] resources = readResources();
+    File file = getFile(resources);
+
+    if (file != null && file.exists()) {
+      try {
+        Package p = read(file, classLoader);
+        if (Trace.isInfo()) {
+          Trace.info("rules read from %s in %d ms\n", file, (System
+              .nanoTime() - start) / 1000000);
+        }
+        return p;
+      } catch (Exception e) {
+        // compile them instead
+        file.delete();
+      } catch (LinkageError e) {
+        file.delete();
+      }
+    }
+
+    Package p = compile(resources, classLoader);
+    if (file != null) {
+      try {
+        write(p, file);
+      } catch (IOException e) {
+        // just no cache then
+      }
+    }
+    if (Trace.isInfo()) {
+      Trace.info("rules compiled in %d ms\n",
+          (System.nanoTime() - start) / 1000000);
+    }
+    return p;
+  }
+
+
+  /**
+   * Compares compiling the rules to reading them from the cache.
+   *
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    ClassLoader classLoader = RuleBaseCache.class.getClassLoader();
+    byte[][] resources = readResources();
+
+    long start = System.nanoTime();
+    Package p = compile(resources, classLoader);
+    long compiled = System.nanoTime() - start;
+
+    File file = File.createTempFile("rules", ".pkg");
+    file.deleteOnExit();
+    write(p, file);
+
+    start = System.nanoTime();
+    read(file, classLoader);
+    long read = System.nanoTime() - start;
+
+    System.out.format("compiling the rules:     %6d ms\n", compiled / 1000000);
+    System.out.format("reading them from cache: %6d ms (%d bytes)\n",
+        read / 1000000, file.length());
+  }
+
+
+  /**
+   * Compiles the rules and ruleflows.
+   */
+  private static Package compile(byte[][] resources, ClassLoader classLoader) {
+    try {
+
+      PackageBuilderConfiguration configuration = new PackageBuilderConfiguration(
+          classLoader);
+      PackageBuilder builder = new PackageBuilder(configuration);
+
+      builder.addPackageFromDrl(new InputStreamReader(new ByteArrayInputStream(
+          resources[0])));
+      builder.addRuleFlow(new InputStreamReader(new ByteArrayInputStream(
+          resources[1])));
+      builder.addRuleFlow(new InputStreamReader(new ByteArrayInputStream(
+          resources[2])));
+
+      if (builder.hasErrors()) {
+        System.out.println(builder.getErrors().toString());
+        throw new RuntimeException("Unable to compile rule file.");
+      }
+
+      return builder.getPackage();
+
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  /**
+   * @return the cache file for these resources, <code>null</code> if there is
+   *         no cache
+   */
+  private static File getFile(byte[][] resources) {
+
+    String dir = System.getProperty("rhein.ruleCache", new File(System
+        .getProperty("user.home"), ".rhein" + File.separator + "rule-cache")
+        .getPath());
+    if (dir.length() == 0) {
+      return null;
+    }
+
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    }
+    for (byte[] resource : resources) {
+      digest.update(resource);
+    }
+    String version = RuleBase.class.getPackage().getImplementationVersion();
+    digest.update(String.valueOf(version).getBytes());
+    if (!digestClasses(digest)) {
+      return null;
+    }
+
+    StringBuilder name = new StringBuilder();
+    for (byte b : digest.digest()) {
+      name.append(String.format("%02x", b));
+    }
+
+    return new File(dir, name.append(".pkg").toString());
+  }
+
+
+  /**
+   * Adds the class files of this package to the digest, as the consequences
+   * are compiled against them.
+   *
+   * @return whether they could be found
+   */
+  private static boolean digestClasses(MessageDigest digest) {
+    try {
+      File root = new File(RuleBaseCache.class.getProtectionDomain()
+          .getCodeSource().getLocation().toURI());
+      String prefix = RuleBaseCache.class.getPackage().getName() + "/";
+
+      if (root.isDirectory()) {
+        File[] files = new File(root, prefix).listFiles();
+        if (files == null) {
+          return false;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.getName().endsWith(".class")) {
+            digest.update(file.getName().getBytes());
+            digest.update(readFully(new FileInputStream(file)));
+          }
+        }
+        return true;
+      }
+
+      JarFile jar = new JarFile(root);
+      try {
+        List<String> names = new ArrayList<String>();
+        for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+          String name = e.nextElement().getName();
+          if (name.startsWith(prefix) && name.endsWith(".class")) {
+            names.add(name);
+          }
+        }
+        Collections.sort(names);
+        for (String name : names) {
+          digest.update(name.getBytes());
+          digest.update(readFully(jar.getInputStream(jar.getEntry(name))));
+        }
+      } finally {
+        jar.close();
+      }
+      return true;
+
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+
+  /**
+   * Makes a file or directory of the cache accessible by its owner only.
+   */
+  private static void makePrivate(File file) {
+    file.setReadable(false, false);
+    file.setWritable(false, false);
+    file.setExecutable(false, false);
+    file.setReadable(true, true);
+    file.setWritable(true, true);
+    if (file.isDirectory()) {
+      file.setExecutable(true, true);
+    }
+  }
+
+
+  private static Package read(File file, ClassLoader classLoader)
+      throws IOException, ClassNotFoundException {
+    ObjectInputStream in = new DroolsObjectInputStream(new FileInputStream(
+        file), classLoader);
+    try {
+      return (Package) in.readObject();
+    } finally {
+      in.close();
+    }
+  }
+
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+
+  private static byte[][] readResources() {
+    byte[][] resources = new byte[RESOURCES.length][];
+    for (int i = 0; i < RESOURCES.length; i++) {
+      InputStream in = RuleBaseCache.class.getResourceAsStream(RESOURCES[i]);
+      if (in == null) {
+        throw new RuntimeException("cannot find " + RESOURCES[i]);
+      }
+      try {
+        resources[i] = readFully(in);
+      } catch (IOException e) {
+        throw new RuntimeException("cannot read " + RESOURCES[i], e);
+      }
+    }
+    return resources;
+  }
+
+
+  /**
+   * Writes the rules to a file of its own first, so that other JVMs never see
+   * half a file.
+   */
+  private static void write(Package p, File file) throws IOException {
+
+    File dir = file.getParentFile();
+    if (!dir.isDirectory()) {
+      dir.mkdirs();
+      makePrivate(dir);
+    }
+    File tmp = File.createTempFile("rules", ".tmp", dir);
+    makePrivate(tmp);
+
+    ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp));
+    try {
+      out.writeObject(p);
+    } finally {
+      out.close();
+    }
+
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.drools.WorkingMemory;
+import org.drools.event.ActivationCancelledEvent;
+import org.drools.event.ActivationCreatedEvent;
+import org.drools.event.AfterActivationFiredEvent;
+import org.drools.event.AgendaEventListener;
+import org.drools.event.AgendaGroupPoppedEvent;
+import org.drools.event.AgendaGroupPushedEvent;
+import org.drools.event.BeforeActivationFiredEvent;
+import org.drools.event.ObjectInsertedEvent;
+import org.drools.event.ObjectRetractedEvent;
+import org.drools.event.ObjectUpdatedEvent;
+import org.drools.event.WorkingMemoryEventListener;
+
+
+/**
+ * Counts what the rule engine does per tick and rule.
+ *
+ * If the <code>ruleStatistics</code> parameter names a file, every Drools
+ * session gets a {@link Listener} and one line per tick and rule is appended
+ * to the file:
+ *
+ * <pre>
+ * tick,rule,created,cancelled,fired,inserted,updated,retracted,facts,micros
+ * </pre>
+ *
+ * i.e. the activations created and cancelled, how often the rule fired, the
+ * facts inserted, updated and retracted by its consequence and the time spent
+ * in it. There is one more line per ruleflow, counting the facts changed from
+ * outside the rules, the facts in the working memories afterwards and the
+ * time taken by the whole ruleflow. Otherwise no listener is registered at
+ * all. Each run has statistics of its own, see {@link RheinModel}.
+ *
+ * @author mlunzena
+ *
+ */
+public class RuleStatistics {
+
+
+  /**
+   * Collects the events of one session. A session is only ever used by one
+   * thread at a time.
+   */
+  public static class Listener implements AgendaEventListener,
+      WorkingMemoryEventListener {
+
+
+    private final Map<String, long[]> counters = new HashMap<String, long[]>();
+
+
+    /**
+     * The counters of the rule firing or the ruleflow running right now.
+     */
+    private long[] current;
+
+
+    private long facts;
+
+
+    private long[] ruleflow;
+
+
+    private long start;
+
+
+    private long started;
+
+
+    @Override
+    public void activationCancelled(ActivationCancelledEvent e,
+        WorkingMemory w) {
+      counters(e.getActivation().getRule().getName())[CANCELLED]++;
+    }
+
+
+    @Override
+    public void activationCreated(ActivationCreatedEvent e, WorkingMemory w) {
+      counters(e.getActivation().getRule().getName())[CREATED]++;
+    }
+
+
+    @Override
+    public void afterActivationFired(AfterActivationFiredEvent e,
+        WorkingMemory w) {
+      current[MICROS] += (System.nanoTime() - start) / 1000;
+      current = ruleflow;
+    }
+
+
+    @Override
+    public void agendaGroupPopped(AgendaGroupPoppedEvent e, WorkingMemory w) {
+    }
+
+
+    @Override
+    public void agendaGroupPushed(AgendaGroupPushedEvent e, WorkingMemory w) {
+    }
+
+
+    @Override
+    public void beforeActivationFired(BeforeActivationFiredEvent e,
+        WorkingMemory w) {
+      current = counters(e.getActivation().getRule().getName());
+      current[FIRED]++;
+      start = System.nanoTime();
+    }
+
+
+    /**
+     * To be called before a ruleflow is started.
+     *
+     * @param name
+     *          of the ruleflow
+     */
+    public void begin(String name) {
+      ruleflow = counters(name);
+      current = ruleflow;
+      started = System.nanoTime();
+    }
+
+
+    /**
+     * To be called once a ruleflow is done.
+     */
+    public void end() {
+      ruleflow[MICROS] += (System.nanoTime() - started) / 1000;
+      ruleflow[FACTS] = facts;
+    }
+
+
+    @Override
+    public void objectInserted(ObjectInsertedEvent e) {
+      facts++;
+      if (current != null) {
+        current[INSERTED]++;
+      }
+    }
+
+
+    @Override
+    public void objectRetracted(ObjectRetractedEvent e) {
+      facts--;
+      if (current != null) {
+        current[RETRACTED]++;
+      }
+    }
+
+
+    @Override
+    public void objectUpdated(ObjectUpdatedEvent e) {
+      if (current != null) {
+        current[UPDATED]++;
+      }
+    }
+
+
+    private long[] counters(String name) {
+      long[] c = counters.get(name);
+      if (c == null) {
+        c = new long[COLUMNS.length];
+        counters.put(name, c);
+      }
+      return c;
+    }
+  }
+
+
+  private static final int CREATED = 0, CANCELLED = 1, FIRED = 2,
+      INSERTED = 3, UPDATED = 4, RETRACTED = 5, FACTS = 6, MICROS = 7;
+
+
+  private static final String[] COLUMNS = { "created", "cancelled", "fired",
+      "inserted", "updated", "retracted", "facts", "micros" };
+
+
+  private final List<Listener> listeners = new ArrayList<Listener>();
+
+
+  /**
+   * <code>null</code> if nothing is recorded.
+   */
+  private final PrintWriter out;
+
+
+  /**
+   * Starts the statistics of a new run.
+   *
+   * @param p
+   *          the parameters of the run
+   */
+  public RuleStatistics(RheinParameters p) {
+
+    if (p.getRuleStatistics().length() == 0) {
+      out = null;
+      return;
+    }
+
+    out = LogFiles.get(p.getRuleStatistics(), "rule statistics");
+    synchronized (out) {
+      out.format("# run seed=%d\n", p.getRheinHelperSeed());
+      out.print("tick,rule");
+      for (String column : COLUMNS) {
+        out.print(',');
+        out.print(column);
+      }
+      out.println();
+      out.flush();
+    }
+  }
+
+
+  /**
+   * Writes the counts of the tick and resets them.
+   */
+  public synchronized void flush() {
+
+    if (out == null) {
+      return;
+    }
+
+    Map<String, long[]> sums = new TreeMap<String, long[]>();
+    for (Listener listener : listeners) {
+      for (Map.Entry<String, long[]> entry : listener.counters.entrySet()) {
+        long[] sum = sums.get(entry.getKey());
+        if (sum == null) {
+          sum = new long[COLUMNS.length];
+          sums.put(entry.getKey(), sum);
+        }
+        long[] c = entry.getValue();
+        for (int i = 0; i < c.length; i++) {
+          sum[i] += c[i];
+        }
+        // facts are a level, not a count
+        long facts = c[FACTS];
+        Arrays.fill(c, 0);
+        c[FACTS] = facts;
+      }
+    }
+
+    double tick = RheinModel.current().getTick();
+    synchronized (out) {
+      for (Map.Entry<String, long[]> entry : sums.entrySet()) {
+        long[] sum = entry.getValue();
+        if (sum[CREATED] + sum[CANCELLED] + sum[FIRED] + sum[INSERTED]
+            + sum[UPDATED] + sum[RETRACTED] + sum[MICROS] == 0) {
+          continue;
+        }
+        out.format("%.0f,\"%s\"", tick, entry.getKey());
+        for (long value : sum) {
+          out.print(',');
+          out.print(value);
+        }
+        out.println();
+      }
+      out.flush();
+    }
+  }
+
+
+  /**
+   * @return a listener to register with a new session, <code>null</code> if
+   *         nothing is recorded
+   */
+  public synchronized Listener newListener() {
+    if (out == null) {
+      return null;
+    }
+    Listener listener = new Listener();
+    listeners.add(listener);
+    return listener;
+  }
+}
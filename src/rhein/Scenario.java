@@ -0,0 +1,89 @@
+/**
+ *
+ */
+package rhein;
+
+
+import repast.simphony.space.graph.Network;
+
+
+/**
+ * Builds the sources, segments and stewards of a run, connects them and adds
+ * the schedulers.
+ *
+ * A scenario knows nothing about where its agents end up: {@link RheinContext}
+ * and {@link RandomContext} build it into a Repast context for the GUI and the
+ * Repast batch runner, {@link Simulation} into plain networks.
+ *
+ * @author mlunzena
+ *
+ */
+public abstract class Scenario {
+
+
+  /**
+   * Where a scenario puts its agents.
+   */
+  public interface Space {
+
+
+    /**
+     * Adds an agent to the run, i.e. to all of its networks.
+     *
+     * @param agent
+     */
+    void add(Object agent);
+
+
+    /**
+     * Places an agent added before.
+     *
+     * @param agent
+     * @param x
+     * @param y
+     */
+    void moveTo(Object agent, int x, int y);
+  }
+
+
+  /**
+   * @param contextBuilder
+   *          the value of the parameter of that name
+   * @return the scenario to build
+   */
+  public static Scenario forName(String contextBuilder) {
+    return "rhein".equals(contextBuilder) ? new RheinScenario()
+        : new RandomScenario();
+  }
+
+
+  /**
+   * Builds the scenario. The random numbers are drawn from the generator of
+   * the current {@link RheinModel}.
+   *
+   * @param p
+   *          the parameters of the run
+   * @param space
+   * @param riversNet
+   *          the network of the sources and segments
+   * @param stewardsRiversNet
+   *          the network of the stewards and their segments
+   * @param stewardsNet
+   *          the network of the stewards
+   */
+  public abstract void build(RheinParameters p, Space space,
+      Network<Object> riversNet, Network<Object> stewardsRiversNet,
+      Network<Object> stewardsNet);
+
+
+  /**
+   * @return the height of the grid needed to place the agents
+   */
+  public abstract int getHeight();
+
+
+  /**
+   * @return the width of the grid needed to place the agents
+   */
+  public abstract int getWidth();
+}
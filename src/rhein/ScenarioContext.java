@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package rhein;
+
+
+import repast.simphony.context.Context;
+import repast.simphony.context.space.graph.NetworkFactoryFinder;
+import repast.simphony.context.space.grid.GridFactoryFinder;
+import repast.simphony.dataLoader.ContextBuilder;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.space.graph.Network;
+import repast.simphony.space.grid.Grid;
+import repast.simphony.space.grid.GridBuilderParameters;
+import repast.simphony.space.grid.RandomGridAdder;
+import repast.simphony.space.grid.StickyBorders;
+
+
+/**
+ * Builds a {@link Scenario} into a Repast context, for the GUI and the Repast
+ * batch runner.
+ *
+ * @author mlunzena
+ *
+ */
+public class ScenarioContext implements ContextBuilder<Object> {
+
+
+  private final Scenario scenario;
+
+
+  /**
+   * @param scenario
+   */
+  public ScenarioContext(Scenario scenario) {
+    this.scenario = scenario;
+  }
+
+
+  /**
+   * @see repast.simphony.dataLoader.ContextBuilder#build(repast.simphony.context.Context)
+   */
+  @Override
+  public Context<Object> build(final Context<Object> context) {
+
+    // a model of its own, seeding my random number generator
+    RheinModel model = new RheinModel(RunEnvironment.getInstance()
+        .getParameters());
+    model.bind();
+    RheinParameters p = model.getParameters();
+
+    // set stop time for batch runs
+    if (RunEnvironment.getInstance().isBatch()) {
+      RunEnvironment.getInstance().endAt(p.getEndAt());
+    }
+
+    Network<Object> stewardsRiversNet = NetworkFactoryFinder
+        .createNetworkFactory(null).createNetwork("StewardsRivers", context,
+            true);
+
+    Network<Object> riversNet = NetworkFactoryFinder.createNetworkFactory(null)
+        .createNetwork("Rivers", context, true);
+    model.setNetworks(riversNet, stewardsRiversNet);
+
+    Network<Object> stewardsNet = NetworkFactoryFinder.createNetworkFactory(
+        null).createNetwork("Stewards", context, true);
+
+    final Grid<Object> grid = GridFactoryFinder.createGridFactory(null)
+        .createGrid(
+            "Grid",
+            context,
+            GridBuilderParameters.singleOccupancy2D(
+                new RandomGridAdder<Object>(), new StickyBorders(), scenario
+                    .getWidth(), scenario.getHeight()));
+
+    scenario.build(p, new Scenario.Space() {
+
+
+      @Override
+      public void add(Object agent) {
+        context.add(agent);
+      }
+
+
+      @Override
+      public void moveTo(Object agent, int x, int y) {
+        grid.moveTo(agent, x, y);
+      }
+    }, riversNet, stewardsRiversNet, stewardsNet);
+
+    return context;
+  }
+}
@@ -1,12 +1,17 @@
 package rhein;
 
+import static rhein.SegmentStore.Column.DIKE_CAPACITY;
+import static rhein.SegmentStore.Column.DISCHARGE;
+import static rhein.SegmentStore.Column.FREEBOARD;
+import static rhein.SegmentStore.Column.INFLOW;
+import static rhein.SegmentStore.Column.OVERFLOW;
+import static rhein.SegmentStore.Column.RETAINABLE;
+import static rhein.SegmentStore.Column.RETAINED;
+
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
 import java.util.Vector;
 
-import org.apache.commons.collections.buffer.BoundedFifoBuffer;
-import org.apache.commons.collections.buffer.CircularFifoBuffer;
-
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 
@@ -24,19 +29,18 @@ public class Segment extends AbstractSegment {
 		return length;
 	}
 
-	protected int dikeCapacity;
-
-	protected int freeboard;
-
 	public void setFreeboard(int freeboard) {
-		this.freeboard = freeboard;
+		store.set(FREEBOARD, id, freeboard);
 	}
 
-	protected int inflow;
+	/**
+	 * The stream the retention basins offered are drawn from.
+	 */
+	private RandomStream basinOffers;
 
 	protected FloodProtection lastBuilt;
 
-	protected CircularFifoBuffer lastInflows;
+	protected IntRingBuffer lastInflows;
 
 	protected int length;
 
@@ -46,17 +50,22 @@ public class Segment extends AbstractSegment {
 
 	protected boolean naturalDike;
 
-	protected int overflow;
-
 	protected Vector<FloodProtection> possibleActions = new Vector<FloodProtection>();
 
 	protected Vector<RetentionBasin> possibleRetentionBasins = new Vector<RetentionBasin>();
 
-	protected int retainable;
+	protected double safety;
 
-	protected int retained;
+	/**
+	 * Incremented whenever something the rules look at changes, apart from
+	 * the threat.
+	 */
+	protected int factVersion;
 
-	protected double safety;
+	/**
+	 * Maintained by {@link Ownership}.
+	 */
+	protected Steward steward;
 
 	public Segment() {
 		this("Segment", 100, 1000, 400);
@@ -74,12 +83,12 @@ public class Segment extends AbstractSegment {
 		super(name);
 
 		this.length = length;
-		this.dikeCapacity = dikeCapacity;
-		this.retainable = retainable;
+		store.set(DIKE_CAPACITY, id, dikeCapacity);
+		store.set(RETAINABLE, id, retainable);
 
 		reset();
 
-		this.lastInflows = new CircularFifoBuffer(RheinHelper
+		this.lastInflows = new IntRingBuffer(RheinHelper
 				.numberOfLastInflows());
 
 		this.minDischarge = 400;
@@ -89,49 +98,41 @@ public class Segment extends AbstractSegment {
 	}
 
 	public void addDikeCapacity(int amount) {
-		if (amount + dikeCapacity > maxDikeCapacity) {
+		int old = getDikeCapacity();
+		if (amount + old > maxDikeCapacity) {
 			throw new RuntimeException(
 					"cannot increase dike capacity beyond maximum capacity");
 		}
-		int old = this.dikeCapacity;
-		dikeCapacity += amount;
-		changes.firePropertyChange("dikeCapacity", old, dikeCapacity);
+		store.set(DIKE_CAPACITY, id, old + amount);
+		factVersion++;
+		changes.firePropertyChange("dikeCapacity", old, old + amount);
 	}
 
 	public void addPossibleAction(FloodProtection action) {
 		this.possibleActions.add(action);
+		factVersion++;
 	}
 
 	public void addRetentionBasin(RetentionBasin retentionBasin) {
-		int old = this.retainable;
-		this.retainable += retentionBasin.getCapacity();
-		changes.firePropertyChange("retainable", old, this.retainable);
+		int old = getRetainable();
+		store.set(RETAINABLE, id, old + retentionBasin.getCapacity());
+		changes.firePropertyChange("retainable", old, getRetainable());
 	}
 
 	/**
 	 * @return the lastInflows
 	 */
-	public void addToLastInflows(Integer inflow) {
+	public void addToLastInflows(int inflow) {
 
 		// TODO: quite hacky; where should I put this?
-		int newSize = RheinHelper.numberOfLastInflows();
-		if (newSize != lastInflows.maxSize()) {
-			CircularFifoBuffer tmp = new CircularFifoBuffer(newSize);
-			for (Object o : getLastInflows()) {
-				tmp.add(o);
-			}
-			System.out
-					.format(
-							"NOTE: resizing lastInflows buffer for Segment %s from %s to %s\n",
-							this, getLastInflows(), tmp);
-			setLastInflows(tmp);
-		}
+		lastInflows.resize(RheinHelper.numberOfLastInflows());
 
 		lastInflows.add(inflow);
 	}
 
 	public void clearPossibleActions() {
 		this.possibleActions.clear();
+		factVersion++;
 	}
 
 	/**
@@ -139,13 +140,20 @@ public class Segment extends AbstractSegment {
    */
 	public void clearPossibleRetentions() {
 		possibleRetentionBasins.clear();
+		factVersion++;
 	}
 
 	public void consume(Iterable<AbstractSegment> list) {
+		consume(sumInflowingWater(list));
+	}
+
+	public void consume(int inflow) {
+
+		int retainable = getRetainable();
+		int dikeCapacity = getDikeCapacity();
 
 		reset();
 
-		int inflow = sumInflowingWater(list);
 		setInflow(inflow);
 		addToLastInflows(inflow);
 
@@ -153,7 +161,8 @@ public class Segment extends AbstractSegment {
 
 		setRetained(inflow - waterLeft);
 
-		setOverflow(Math.max(0, waterLeft - dikeCapacity));
+		int overflow = Math.max(0, waterLeft - dikeCapacity);
+		setOverflow(overflow);
 
 		setDischarge(waterLeft - (isNaturalDike() ? 0 : overflow));
 		
@@ -166,8 +175,11 @@ public class Segment extends AbstractSegment {
 	public void generatePossibleRetentionBasin() {
 
 		// TODO vielleicht lieber nicht über den generator?
+		if (basinOffers == null) {
+			basinOffers = RheinHelper.stream("basins/" + name);
+		}
 		RetentionBasin retentionBasin = new RetentionBasinGenerator()
-		.generateRetentionBasin();
+		.generateRetentionBasin(basinOffers);
 
 		// TODO 3? wieso 3?
 		if (naturalDike || possibleRetentionBasins.size() > 3) {
@@ -176,6 +188,7 @@ public class Segment extends AbstractSegment {
 
 		if (retentionBasin != null) {
 			possibleRetentionBasins.add(retentionBasin);
+			factVersion++;
 		}
 	}
 
@@ -183,7 +196,7 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public int getDikeCapacity() {
-		return dikeCapacity;
+		return store.get(DIKE_CAPACITY, id);
 	}
 
 	public Iterable<Segment> getDownstreamSegments() {
@@ -217,14 +230,22 @@ public class Segment extends AbstractSegment {
 	 * @return the freeboard of this segment
 	 */
 	public int getFreeboard() {
-		return freeboard;
+		return store.get(FREEBOARD, id);
 	}
 
 	/**
 	 * @return
 	 */
 	public int getInflow() {
-		return inflow;
+		return store.get(INFLOW, id);
+	}
+
+	/**
+	 * @return a number that changes whenever something the rules look at
+	 *         changes, apart from the threat
+	 */
+	public int getFactVersion() {
+		return factVersion;
 	}
 
 	public FloodProtection getLastBuilt() {
@@ -241,7 +262,7 @@ public class Segment extends AbstractSegment {
 	/**
 	 * @return the lastInflows
 	 */
-	public BoundedFifoBuffer getLastInflows() {
+	public IntRingBuffer getLastInflows() {
 		return lastInflows;
 	}
 
@@ -253,13 +274,37 @@ public class Segment extends AbstractSegment {
 	}
 
 	public int getLengthOfDownstream() {
-		return getLengthOfSegments(getDownstreamSegments());
+		return RheinHelper.getDownstreamIndex().getLength(this);
 	}
 
 	public int getLengthOfDownstream(Predicate<Segment> p) {
 		return getLengthOfSegments(getDownstreamSegments(p));
 	}
 
+	/**
+	 * @param steward
+	 * @return the length of the segments of the steward downstream
+	 */
+	public int getLengthOfDownstreamOwnedBy(Steward steward) {
+		return RheinHelper.getDownstreamIndex().getLengthOwnedBy(this, steward);
+	}
+
+	/**
+	 * @return the length of the threatened segments downstream
+	 */
+	public int getThreatenedLengthOfDownstream() {
+		return RheinHelper.getDownstreamIndex().getThreatenedLength(this);
+	}
+
+	/**
+	 * @param steward
+	 * @return the length of the threatened segments of the steward downstream
+	 */
+	public int getThreatenedLengthOfDownstreamOwnedBy(Steward steward) {
+		return RheinHelper.getDownstreamIndex().getThreatenedLengthOwnedBy(
+				this, steward);
+	}
+
 	/**
 	 * @return the maxDikeCapacity
 	 */
@@ -278,7 +323,7 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public int getOverflow() {
-		return overflow;
+		return store.get(OVERFLOW, id);
 	}
 
 	/**
@@ -299,14 +344,14 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public int getRetainable() {
-		return retainable;
+		return store.get(RETAINABLE, id);
 	}
 
 	/**
 	 * @return the retained
 	 */
 	public int getRetained() {
-		return retained;
+		return store.get(RETAINED, id);
 	}
 
 	public int getSafeDikeCapacity() {
@@ -324,41 +369,26 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public int getSimpleMovingAverageOfLastInflows() {
-		float result = 0;
-		for (Object i : getLastInflows()) {
-			result += (Integer) i;
-		}
-		return Math.round(result / getLastInflows().size());
+		return lastInflows.getAverage();
 	}
 
 	/**
 	 * @return
 	 */
 	public int getMaximumOfLastInflows() {
-		int max = Integer.MIN_VALUE;
-		for (Object i : getLastInflows()) {
-			if ((Integer)i > max) {
-				max = (Integer) i;
-			}
-		}
-		return max;
+		return lastInflows.getMaximum();
 	}
 
 	/**
 	 * @return
 	 */
 	public Steward getSteward() {
-		Vector<Steward> stewards = new Vector<Steward>();
-		for (Object o : RheinHelper.getStewardRiverNetwork().getAdjacent(this)) {
-			if (o instanceof Steward) {
-				stewards.add((Steward) o);
-			}
+		RheinHelper.ensureOwnership();
+		if (steward == null) {
+			throw new NoSuchElementException("segment " + this
+					+ " has no steward");
 		}
-		if (stewards.size() > 1) {
-			throw new RuntimeException("segment " + this
-					+ " has more than one steward " + stewards);
-		}
-		return stewards.firstElement();
+		return steward;
 	}
 
 	/**
@@ -410,8 +440,8 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public boolean isThreatened() {
-		return overflow > 0
-				|| (getMaximumOfLastInflows() >= retainable
+		return getOverflow() > 0
+				|| (getMaximumOfLastInflows() >= getRetainable()
 						+ getSafeDikeCapacity());
 	}
 
@@ -427,6 +457,7 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public boolean removePossibleAction(FloodProtection f) {
+		factVersion++;
 		return possibleActions.remove(f);
 	}
 
@@ -435,6 +466,7 @@ public class Segment extends AbstractSegment {
 	 * @return
 	 */
 	public boolean removePossibleRetention(RetentionBasin r) {
+		factVersion++;
 		return possibleRetentionBasins.remove(r);
 	}
 
@@ -442,16 +474,20 @@ public class Segment extends AbstractSegment {
    *
    */
 	protected void reset() {
-		retained = discharge = inflow = overflow = 0;
+		store.set(RETAINED, id, 0);
+		store.set(DISCHARGE, id, 0);
+		store.set(INFLOW, id, 0);
+		store.set(OVERFLOW, id, 0);
 	}
 
 	/**
 	 * @param dikeCapacity
 	 */
 	public void setDikeCapacity(int dikeCapacity) {
-		int old = this.dikeCapacity;
-		this.dikeCapacity = dikeCapacity;
-		changes.firePropertyChange("dikeCapacity", old, this.dikeCapacity);
+		int old = getDikeCapacity();
+		store.set(DIKE_CAPACITY, id, dikeCapacity);
+		factVersion++;
+		changes.firePropertyChange("dikeCapacity", old, dikeCapacity);
 	}
 
 	/**
@@ -459,9 +495,9 @@ public class Segment extends AbstractSegment {
 	 *            the inflow to set
 	 */
 	protected void setInflow(int inflow) {
-		int old = this.inflow;
-		this.inflow = inflow;
-		changes.firePropertyChange("inflow", old, this.inflow);
+		int old = getInflow();
+		store.set(INFLOW, id, inflow);
+		changes.firePropertyChange("inflow", old, inflow);
 	}
 
 	protected void setLastBuilt(FloodProtection lastBuilt) {
@@ -472,7 +508,7 @@ public class Segment extends AbstractSegment {
 	 * @param lastInflows
 	 *            the lastInflows to set
 	 */
-	protected void setLastInflows(CircularFifoBuffer lastInflows) {
+	protected void setLastInflows(IntRingBuffer lastInflows) {
 		this.lastInflows = lastInflows;
 	}
 
@@ -482,6 +518,7 @@ public class Segment extends AbstractSegment {
 	public void setLength(int length) {
 		int old = this.length;
 		this.length = length;
+		RheinHelper.invalidateDownstreamIndex();
 		changes.firePropertyChange("length", old, this.length);
 	}
 
@@ -491,6 +528,7 @@ public class Segment extends AbstractSegment {
 	 */
 	public void setMaxDikeCapacity(int maxDikeCapacity) {
 		this.maxDikeCapacity = maxDikeCapacity;
+		factVersion++;
 	}
 
 	/**
@@ -510,6 +548,7 @@ public class Segment extends AbstractSegment {
 	public void setNaturalDike(boolean naturalDike) {
 		boolean old = this.naturalDike;
 		this.naturalDike = naturalDike;
+		factVersion++;
 		changes.firePropertyChange("naturalDike", old, this.naturalDike);
 	}
 
@@ -518,14 +557,15 @@ public class Segment extends AbstractSegment {
 	 *            the overflow to set
 	 */
 	protected void setOverflow(int overflow) {
-		int old = this.overflow;
-		this.overflow = overflow;
-		changes.firePropertyChange("overflow", old, this.overflow);
+		int old = getOverflow();
+		store.set(OVERFLOW, id, overflow);
+		changes.firePropertyChange("overflow", old, overflow);
 	}
 
 	public void setPossibleRetentionBasins(
 			Vector<RetentionBasin> possibleRetentionBasins) {
 		this.possibleRetentionBasins = possibleRetentionBasins;
+		factVersion++;
 	}
 
 	/**
@@ -533,9 +573,9 @@ public class Segment extends AbstractSegment {
 	 *            the retainable to set
 	 */
 	public void setRetainable(int retainable) {
-		int old = this.retainable;
-		this.retainable = retainable;
-		changes.firePropertyChange("retainable", old, this.retainable);
+		int old = getRetainable();
+		store.set(RETAINABLE, id, retainable);
+		changes.firePropertyChange("retainable", old, retainable);
 	}
 
 	/**
@@ -543,9 +583,9 @@ public class Segment extends AbstractSegment {
 	 *            the retained to set
 	 */
 	protected void setRetained(int retained) {
-		int old = this.retained;
-		this.retained = retained;
-		changes.firePropertyChange("retained", old, this.retained);
+		int old = getRetained();
+		store.set(RETAINED, id, retained);
+		changes.firePropertyChange("retained", old, retained);
 	}
 
 	/**
@@ -575,7 +615,8 @@ public class Segment extends AbstractSegment {
 	 */
 	@Override
 	public String toString() {
-		return String.format("%s i%d/o%d/d%d/r%d th %s", name, inflow,
-				overflow, discharge, retained, isThreatened() ? "y" : "n");
+		return String.format("%s i%d/o%d/d%d/r%d th %s", name, getInflow(),
+				getOverflow(), getDischarge(), getRetained(),
+				isThreatened() ? "y" : "n");
 	}
 }
\ No newline at end of file
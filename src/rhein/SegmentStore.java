@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package rhein;
+
+
+/**
+ * Column store for the hydraulic state of all the segments of a run.
+ *
+ * Every {@link AbstractSegment} is assigned an id on construction and keeps
+ * its state in the primitive columns of this store instead of in fields of its
+ * own. Whole columns can be read at once, e.g. by data gatherers.
+ *
+ * @author mlunzena
+ *
+ */
+public class SegmentStore {
+
+
+  /**
+   * The columns of the store.
+   */
+  public enum Column {
+    INFLOW, OVERFLOW, RETAINED, DISCHARGE, FREEBOARD, DIKE_CAPACITY, RETAINABLE
+  }
+
+
+  private static final int INITIAL_CAPACITY = 64;
+
+
+  /**
+   * The data, one array per column indexed by segment id.
+   */
+  private int[][] columns = new int[Column.values().length][INITIAL_CAPACITY];
+
+
+  /**
+   * Number of ids handed out so far.
+   */
+  private int size;
+
+
+  /**
+   * Whether a phase is running, see {@link #beginPhase()}.
+   */
+  private boolean inPhase;
+
+
+  /**
+   * Incremented on every write outside a phase and once at the end of every
+   * phase, so readers can tell whether anything changed.
+   */
+  private int version;
+
+
+  /**
+   * Reserves a new row in all columns.
+   *
+   * @return the id of the new row
+   */
+  public synchronized int allocate() {
+    if (size == columns[0].length) {
+      int[][] grown = new int[columns.length][];
+      for (int c = 0; c < columns.length; c++) {
+        grown[c] = new int[size * 2];
+        System.arraycopy(columns[c], 0, grown[c], 0, size);
+      }
+      columns = grown;
+    }
+    return size++;
+  }
+
+
+  /**
+   * @param column
+   * @param id
+   * @return the value of the column for that segment
+   */
+  public int get(Column column, int id) {
+    return columns[column.ordinal()][id];
+  }
+
+
+  /**
+   * Starts a phase in which many rows are written, possibly by several
+   * threads at once. Until the matching {@link #endPhase()} the writes leave
+   * the version alone, so the workers do not contend for it; the phase counts
+   * as one change. Must be called before the workers are started.
+   */
+  public void beginPhase() {
+    inPhase = true;
+  }
+
+
+  /**
+   * Ends a phase started with {@link #beginPhase()}. Must be called after the
+   * workers are done.
+   */
+  public void endPhase() {
+    inPhase = false;
+    version++;
+  }
+
+
+  /**
+   * @param column
+   * @return a copy of the whole column, indexed by segment id
+   */
+  public int[] getColumn(Column column) {
+    int[] copy = new int[size];
+    System.arraycopy(columns[column.ordinal()], 0, copy, 0, size);
+    return copy;
+  }
+
+
+  /**
+   * @param column
+   * @param id
+   * @param value
+   */
+  public void set(Column column, int id, int value) {
+    columns[column.ordinal()][id] = value;
+    if (!inPhase) {
+      version++;
+    }
+  }
+
+
+  /**
+   * @return a number that changes whenever a value is written, or once for
+   *         all the values written in a phase
+   */
+  public int getVersion() {
+    return version;
+  }
+
+
+  /**
+   * @return the number of segments in this store
+   */
+  public int size() {
+    return size;
+  }
+
+
+  /**
+   * @param column
+   * @return the sum of the column over all segments
+   */
+  public long sum(Column column) {
+    int[] values = columns[column.ordinal()];
+    long sum = 0;
+    for (int id = 0; id < size; id++) {
+      sum += values[id];
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,383 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import repast.simphony.space.graph.DirectedJungNetwork;
+
+
+/**
+ * Runs a {@link Scenario} without the Repast runtime.
+ *
+ * There is no context, grid, data loader or reflective schedule: the agents
+ * only live in the networks, and every tick simply runs the river phase and
+ * then the steward phase, just as the priorities of their scheduled methods
+ * order them in Repast. The observers are told afterwards, like the data
+ * gatherers of the scenario. So a run has the same outcome as one of the Repast
+ * batch runner with the same parameters, from tick 1 to <code>endAt</code>.
+ *
+ * Usage:
+ * <code>Simulation [-segments file] [-payments file] [-fork file] [-checkpoint file] name=value ...</code>
+ * runs once with the given parameters and writes the data sets of the
+ * scenario's outputters, see {@link DataSets}. With <code>-fork</code>, the
+ * run goes on from a {@link Checkpoint} instead of starting at tick 0, with
+ * the seed of the checkpoint unless another one is given; with
+ * <code>-checkpoint</code>, a checkpoint is written once it is done.
+ *
+ * @author mlunzena
+ *
+ */
+public class Simulation {
+
+
+  /**
+   * Is told about every tick once both phases are done.
+   */
+  public interface Observer {
+
+
+    /**
+     * @param simulation
+     */
+    void ticked(Simulation simulation);
+  }
+
+
+  /**
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+
+    String segmentsFile = null;
+    String paymentsFile = null;
+    String forkFile = null;
+    String checkpointFile = null;
+    Map<String, String> values = new LinkedHashMap<String, String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-segments") && i + 1 < args.length) {
+        segmentsFile = args[++i];
+      } else if (args[i].equals("-payments") && i + 1 < args.length) {
+        paymentsFile = args[++i];
+      } else if (args[i].equals("-fork") && i + 1 < args.length) {
+        forkFile = args[++i];
+      } else if (args[i].equals("-checkpoint") && i + 1 < args.length) {
+        checkpointFile = args[++i];
+      } else if (args[i].indexOf('=') > 0) {
+        int eq = args[i].indexOf('=');
+        values.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+      } else {
+        System.err.println("usage: Simulation [-segments file] "
+            + "[-payments file] [-fork file] [-checkpoint file] "
+            + "name=value ...");
+        System.exit(1);
+      }
+    }
+
+    long start = System.nanoTime();
+    Checkpoint fork = forkFile == null ? null : Checkpoint.load(new File(
+        forkFile));
+    if (fork != null && !values.containsKey("rheinHelperSeed")) {
+      values.put("rheinHelperSeed", String.valueOf(fork.getSeed()));
+    }
+    RheinParameters p = RheinParameters.from(values);
+    Simulation simulation = fork == null ? new Simulation(p) : fork.fork(p);
+    int first = simulation.getTick();
+
+    final PrintWriter segments = open(segmentsFile, DataSets.SEGMENTS);
+    final PrintWriter payments = open(paymentsFile, DataSets.PAYMENTS);
+    simulation.addObserver(new Observer() {
+
+
+      @Override
+      public void ticked(Simulation s) {
+        if (segments != null) {
+          DataSets.writeSegments(segments, 1, s);
+        }
+        if (payments != null) {
+          DataSets.writePayments(payments, 1, s);
+        }
+      }
+    });
+
+    simulation.run();
+
+    if (checkpointFile != null) {
+      Checkpoint.take(simulation).save(new File(checkpointFile));
+    }
+
+    if (segments != null) {
+      segments.close();
+    }
+    if (payments != null) {
+      payments.close();
+    }
+
+    long millis = (System.nanoTime() - start) / 1000000;
+    int ticks = simulation.getTick() - first;
+    System.out.format("%d ticks in %d ms (%.0f ticks/s)\n", ticks, millis,
+        ticks * 1000.0 / Math.max(1, millis));
+    Convergence convergence = simulation.getModel().getConvergence();
+    if (convergence.isStopped()) {
+      System.out.format("stopped at tick %.0f: %s\n", convergence
+          .getStopTick(), convergence.getReason());
+    }
+  }
+
+
+  private static PrintWriter open(String file, String header)
+      throws IOException {
+    if (file == null) {
+      return null;
+    }
+    PrintWriter out = new PrintWriter(new FileWriter(file));
+    out.println(header);
+    return out;
+  }
+
+
+  private final List<Object> agents = new ArrayList<Object>();
+
+
+  private final RheinModel model;
+
+
+  private final List<Observer> observers = new ArrayList<Observer>();
+
+
+  private final DirectedJungNetwork<Object> riversNet = new DirectedJungNetwork<Object>(
+      "Rivers");
+
+
+  private RiverScheduler riverScheduler;
+
+
+  private final List<Segment> segments = new ArrayList<Segment>();
+
+
+  private final DirectedJungNetwork<Object> stewardsNet = new DirectedJungNetwork<Object>(
+      "Stewards");
+
+
+  private final DirectedJungNetwork<Object> stewardsRiversNet = new DirectedJungNetwork<Object>(
+      "StewardsRivers");
+
+
+  private StewardScheduler stewardScheduler;
+
+
+  private final List<Steward> stewards = new ArrayList<Steward>();
+
+
+  private int tick;
+
+
+  /**
+   * Builds the scenario named by the parameter <code>contextBuilder</code> in
+   * a model of its own and initializes the schedulers, i.e. runs tick 0.
+   *
+   * @param p
+   *          the parameters of the run
+   */
+  public Simulation(RheinParameters p) {
+
+    this(new RheinModel(p), 0);
+
+    boolean built = false;
+    try {
+      Scenario.forName(p.getContextBuilder()).build(p, new Scenario.Space() {
+
+
+        @Override
+        public void add(Object agent) {
+          Simulation.this.add(agent);
+        }
+
+
+        @Override
+        public void moveTo(Object agent, int x, int y) {
+          // there is no grid
+        }
+      }, riversNet, stewardsRiversNet, stewardsNet);
+
+      initialize();
+      built = true;
+    } finally {
+      if (!built) {
+        model.retire();
+      }
+    }
+  }
+
+
+  /**
+   * Creates a run without any agents at the given tick, for {@link Checkpoint}
+   * to fill in.
+   *
+   * @param model
+   * @param tick
+   */
+  Simulation(RheinModel model, int tick) {
+    this.model = model;
+    this.tick = tick;
+    model.bind();
+    model.setTick(tick);
+    model.setNetworks(riversNet, stewardsRiversNet);
+  }
+
+
+  /**
+   * Adds an agent to all of the networks, like a context.
+   *
+   * @param agent
+   */
+  void add(Object agent) {
+
+    stewardsRiversNet.addVertex(agent);
+    riversNet.addVertex(agent);
+    stewardsNet.addVertex(agent);
+
+    if (agent instanceof RiverScheduler) {
+      riverScheduler = (RiverScheduler) agent;
+      return;
+    }
+    if (agent instanceof StewardScheduler) {
+      stewardScheduler = (StewardScheduler) agent;
+      return;
+    }
+
+    agents.add(agent);
+    if (agent instanceof Segment) {
+      segments.add((Segment) agent);
+    } else if (agent instanceof Steward) {
+      stewards.add((Steward) agent);
+    }
+  }
+
+
+  /**
+   * Initializes the schedulers once all the agents are there.
+   */
+  void initialize() {
+
+    if (riverScheduler == null || stewardScheduler == null) {
+      throw new IllegalStateException("the scenario has no schedulers");
+    }
+
+    riverScheduler.initialize();
+    stewardScheduler.initialize();
+  }
+
+
+  /**
+   * @param observer
+   */
+  public void addObserver(Observer observer) {
+    observers.add(observer);
+  }
+
+
+  /**
+   * @return the agents apart from the schedulers, in the order they were added
+   */
+  public List<Object> getAgents() {
+    return agents;
+  }
+
+
+  /**
+   * @return the model of the run
+   */
+  public RheinModel getModel() {
+    return model;
+  }
+
+
+  /**
+   * @return the network of the rivers
+   */
+  public DirectedJungNetwork<Object> getRiverNetwork() {
+    return riversNet;
+  }
+
+
+  /**
+   * @return the segments in the order the scenario added them
+   */
+  public List<Segment> getSegments() {
+    return segments;
+  }
+
+
+  /**
+   * @return the stewards in the order the scenario added them
+   */
+  public List<Steward> getStewards() {
+    return stewards;
+  }
+
+
+  /**
+   * @return the network of the stewards
+   */
+  public DirectedJungNetwork<Object> getStewardNetwork() {
+    return stewardsNet;
+  }
+
+
+  /**
+   * @return the network of the stewards and their segments
+   */
+  public DirectedJungNetwork<Object> getStewardRiverNetwork() {
+    return stewardsRiversNet;
+  }
+
+
+  /**
+   * @return the last tick run, 0 before the first one
+   */
+  public int getTick() {
+    return tick;
+  }
+
+
+  /**
+   * Runs the remaining ticks up to <code>endAt</code>, or until the run
+   * settled down, see {@link Convergence}. The model is retired afterwards,
+   * see {@link RheinModel#retire()}.
+   */
+  public void run() {
+    int endAt = model.getParameters().getEndAt();
+    try {
+      while (tick < endAt && !model.getConvergence().isStopped()) {
+        step();
+      }
+    } finally {
+      model.retire();
+    }
+  }
+
+
+  /**
+   * Runs the next tick.
+   */
+  public void step() {
+    model.bind();
+    model.setTick(++tick);
+    riverScheduler.step();
+    stewardScheduler.step();
+    for (Observer observer : observers) {
+      observer.ticked(this);
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package rhein;
 
 
+import java.nio.IntBuffer;
+
+import cern.jet.random.Normal;
 
 
 /**
@@ -10,12 +13,32 @@ package rhein;
 public class Source extends AbstractSegment {
 
 
+  /**
+   * The number of discharges drawn so far.
+   */
+  private int drawn;
+
+
   /**
    *
    */
   protected int meanDischarge;
 
 
+  /**
+   * The random stream of this source, see
+   * {@link RheinHelper#newRandomEngine(String)}.
+   */
+  private Normal normal;
+
+
+  /**
+   * The discharges pre-generated by the {@link Hydrology}, <code>null</code>
+   * if there are none.
+   */
+  private IntBuffer series;
+
+
   /**
    *
    */
@@ -47,7 +70,36 @@ public class Source extends AbstractSegment {
    */
   @Override
   public void consume(Iterable<AbstractSegment> list) {
-    discharge = (int) RheinHelper.nextNormalDouble(meanDischarge, stdDevDischarge);
+    consume(0);
+  }
+
+
+  /* (non-Javadoc)
+   * @see rhein.AbstractSegment#consume(int)
+   */
+  @Override
+  public void consume(int inflow) {
+    if (series != null && drawn < series.limit()) {
+      setDischarge(series.get(drawn++));
+      return;
+    }
+    if (normal == null) {
+      normal = new Normal(0, 1, RheinHelper.newRandomEngine(name));
+      // go on where the series ended
+      for (int i = 0; i < drawn; i++) {
+        normal.nextDouble();
+      }
+    }
+    drawn++;
+    setDischarge((int) (normal.nextDouble() * stdDevDischarge + meanDischarge));
+  }
+
+
+  /**
+   * @return the number of discharges drawn so far
+   */
+  int getDrawn() {
+    return drawn;
   }
 
 
@@ -64,6 +116,39 @@ public class Source extends AbstractSegment {
    */
   public void setMeanDischarge(int minDischarge) {
     this.meanDischarge = minDischarge;
+    series = null;
+  }
+
+
+  /**
+   * @return the random stream, <code>null</code> as long as nothing was drawn
+   *         from it
+   */
+  Normal getNormal() {
+    return normal;
+  }
+
+
+  /**
+   * Goes on from where a {@link Checkpoint} stopped.
+   *
+   * @param drawn
+   * @param normal
+   *          the random stream, <code>null</code> if nothing was drawn from it
+   */
+  void restore(int drawn, Normal normal) {
+    this.drawn = drawn;
+    this.normal = normal;
+  }
+
+
+  /**
+   * Replays the given discharges instead of drawing them.
+   *
+   * @param series
+   */
+  void setSeries(IntBuffer series) {
+    this.series = series;
   }
 
 
@@ -80,6 +165,7 @@ public class Source extends AbstractSegment {
    */
   public void setStdDevDischarge(int stdDevDischarge) {
     this.stdDevDischarge = stdDevDischarge;
+    series = null;
   }
 
   /* (non-Javadoc)
@@ -87,6 +173,6 @@ public class Source extends AbstractSegment {
    */
   @Override
   public String toString() {
-    return String.format("%s %d", getName(), discharge);
+    return String.format("%s %d", getName(), getDischarge());
   }
 }
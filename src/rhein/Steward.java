@@ -4,23 +4,10 @@
 package rhein;
 
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 
-import org.drools.QueryResult;
-import org.drools.QueryResults;
-import org.drools.RuleBase;
-import org.drools.RuleBaseConfiguration;
-import org.drools.RuleBaseFactory;
-import org.drools.StatefulSession;
-import org.drools.compiler.PackageBuilder;
-import org.drools.compiler.PackageBuilderConfiguration;
-
-import repast.simphony.space.graph.Network;
-
 /**
  * @author mlunzena
  * 
@@ -35,7 +22,7 @@ public class Steward {
 	/**
    *
    */
-	private final PropertyChangeSupport changes = new PropertyChangeSupport(
+	private final PropertyChanges changes = new PropertyChanges(
 			this);
 
 	/**
@@ -43,14 +30,22 @@ public class Steward {
    */
 	private String name;
 
-	static {
-		loadRuleFile();
-	}
-	
 	/**
-     *
-     */
-	private static RuleBase ruleBase;
+	 * Makes the decisions, created on first use.
+	 */
+	private DecisionEngine engine;
+
+	/**
+	 * Maintained by {@link Ownership}.
+	 */
+	final Vector<Segment> segments = new Vector<Segment>();
+
+	/**
+	 * What {@link #getSegments()} hands out, so nobody else can change the
+	 * segments.
+	 */
+	final List<Segment> segmentsView = Collections
+			.unmodifiableList(segments);
 
 
 	/**
@@ -81,16 +76,7 @@ public class Steward {
 	// @ScheduledMethod(start = 1, interval = 1, priority = -1, shuffle = false)
 	public void chooseActions() {
 
-		StatefulSession session = getSession();
-		session.insert(this, true);
-
-		for (Segment segment : getSegments()) {
-			session.insert(segment, true);
-		}
-
-		session.startProcess("ACTION_SELECTION_RULEFLOW");
-		session.fireAllRules();
-		session.dispose();
+		getEngine().selectActions();
 
 		for (Segment s : getSegments()) {
 			s.setLastBuilt(null);
@@ -99,14 +85,24 @@ public class Steward {
 						.firstElement();
 				construct.execute();
 				s.setLastBuilt(construct);
-				System.out.format("  >>> constructed %s\n", construct);
+				RheinModel.current().getConstructionLog().record(this, construct);
+				if (Trace.isDebug()) {
+					Trace.debug("  >>> constructed %s\n", construct);
+				}
 				s.clearPossibleActions();
 			}
 		}
 	}
 
-	private StatefulSession getSession() {
-		return ruleBase.newStatefulSession();
+	private DecisionEngine getEngine() {
+		if (engine == null) {
+			if (RheinHelper.parameters().getDecisionEngine() == DecisionEngine.Kind.JAVA) {
+				engine = new JavaDecisionEngine(this);
+			} else {
+				engine = new DroolsDecisionEngine(this);
+			}
+		}
+		return engine;
 	}
 
 	/**
@@ -118,31 +114,32 @@ public class Steward {
 
 	// @ScheduledMethod(start = 1, interval = 1, priority = 0, shuffle = false)
 	public void generatePossibleActions() {
+		addPossibleActions(proposeActions());
+	}
 
-		StatefulSession session = getSession();
-		session.insert(this, true);
-
-		for (Segment segment : getSegments()) {
-			session.insert(segment, true);
-		}
-
-		// add configuration variables
-
-		session.startProcess("ACTION_GENERATION_RULEFLOW");
-		session.fireAllRules();
-
-		QueryResults results = session.getQueryResults("all floodprotections");
+	/**
+	 * Generates the flood protections the steward could build, without
+	 * changing anything.
+	 * 
+	 * @return the proposals, see {@link #addPossibleActions(List)}
+	 */
+	public List<FloodProtection> proposeActions() {
+		return getEngine().generateActions();
+	}
 
-		for (Iterator<?> it = results.iterator(); it.hasNext();) {
-			QueryResult result = (QueryResult) it.next();
-			FloodProtection floodProtection = (FloodProtection) result
-					.get("floodprotection");
+	/**
+	 * Adds proposals to the possible actions of their segments.
+	 * 
+	 * @param proposals
+	 */
+	public void addPossibleActions(List<FloodProtection> proposals) {
+		for (FloodProtection floodProtection : proposals) {
 			floodProtection.getSegment().addPossibleAction(floodProtection);
-			System.out
-					.format("  >>> set possible action %s\n", floodProtection);
+			if (Trace.isDebug()) {
+				Trace.debug("  >>> set possible action %s\n",
+						floodProtection);
+			}
 		}
-
-		session.dispose();
 	}
 
 	/**
@@ -160,18 +157,11 @@ public class Steward {
 	}
 
 	/**
-	 * @return
+	 * @return the segments of the steward, a read-only view
 	 */
-	public Vector<Segment> getSegments() {
-		Network<Object> net = RheinHelper.getStewardRiverNetwork();
-
-		Vector<Segment> segments = new Vector<Segment>();
-		for (Object o : net.getAdjacent(this)) {
-			if (o instanceof Segment) {
-				segments.add((Segment) o);
-			}
-		}
-		return segments;
+	public List<Segment> getSegments() {
+		RheinHelper.ensureOwnership();
+		return segmentsView;
 	}
 
 	/**
@@ -181,48 +171,6 @@ public class Steward {
 		return totalSpent;
 	}
 
-	/**
-   *
-   */
-	private static void loadRuleFile() {
-		try {
-
-			ClassLoader classLoader = Steward.class.getClassLoader();
-
-			PackageBuilderConfiguration configuration = new PackageBuilderConfiguration(
-					classLoader);
-			PackageBuilder builder = new PackageBuilder(configuration);
-
-			Reader rulesFile = new InputStreamReader(Steward.class
-					.getResourceAsStream("../Steward.drl"));
-
-			builder.addPackageFromDrl(rulesFile);
-
-			Reader ruleFlowFile1 = new InputStreamReader(Steward.class
-					.getResourceAsStream("../ActionGeneration.rfm"));
-			Reader ruleFlowFile2 = new InputStreamReader(Steward.class
-					.getResourceAsStream("../ActionSelection.rfm"));
-
-			builder.addRuleFlow(ruleFlowFile1);
-			builder.addRuleFlow(ruleFlowFile2);
-
-			if (builder.hasErrors()) {
-				System.out.println(builder.getErrors().toString());
-				throw new RuntimeException("Unable to compile rule file.");
-			}
-
-			RuleBaseConfiguration ruleBaseConfiguration = new RuleBaseConfiguration(
-					classLoader);
-
-			ruleBase = RuleBaseFactory.newRuleBase(ruleBaseConfiguration);
-			ruleBase.addPackage(builder.getPackage());
-
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw new RuntimeException(e);
-		}
-	}
-
 	public void removePropertyChangeListener(final PropertyChangeListener l) {
 		this.changes.removePropertyChangeListener(l);
 	}
@@ -234,6 +182,15 @@ public class Steward {
 		this.balance = balance;
 	}
 
+	/**
+	 * Used by {@link Checkpoint} only.
+	 * 
+	 * @param totalSpent
+	 */
+	void setTotalSpent(long totalSpent) {
+		this.totalSpent = totalSpent;
+	}
+
 	/**
 	 * @param name
 	 *            the name to set
@@ -4,12 +4,14 @@
 package rhein;
 
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.essentials.RepastEssentials;
 import repast.simphony.space.graph.Network;
 
 
@@ -21,9 +23,15 @@ public class StewardScheduler {
 
 
   /**
-   * Name of the Network to watch for river segments
+   * More chunks than threads, as the stewards differ in size.
    */
-  private static String STEWARD_RIVER_NETWORK_NAME = "Rhein/StewardsRivers";
+  private static final int CHUNKS_PER_THREAD = 4;
+
+
+  /**
+   * The run this scheduler belongs to.
+   */
+  private final RheinModel model = RheinModel.current();
 
 
   /**
@@ -41,12 +49,11 @@ public class StewardScheduler {
   /**
    *
    */
-  @SuppressWarnings("unchecked")
   @ScheduledMethod(start = 0)
   public void initialize() {
 
-    stewardRiverNet = (Network<Object>) RepastEssentials
-        .FindProjection(STEWARD_RIVER_NETWORK_NAME);
+    model.bind();
+    stewardRiverNet = model.getStewardRiverNetwork();
 
     // get initial segments
     initStewards();
@@ -83,7 +90,60 @@ public class StewardScheduler {
    */
   public void initStewards() {
     stewards = filterStewards(stewardRiverNet.getNodes());
-    System.out.println("initSteward: " + stewards);
+    if (Trace.isInfo()) {
+      Trace.info("initSteward: %s\n", stewards);
+    }
+  }
+
+
+  /**
+   * Lets the stewards generate their proposals side by side. They only read
+   * the state of the model while doing so, and the proposals as well as the
+   * trace messages are merged in the order of the stewards afterwards. So the
+   * outcome is the same as in the sequential case.
+   */
+  private void generateParallel() {
+
+    final int size = stewards.size();
+    final List<?>[] proposals = new List<?>[size];
+    final Trace.Messages[] messages = new Trace.Messages[size];
+
+    int chunks = Math.min(size, Workers.getThreads() * CHUNKS_PER_THREAD);
+
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int c = 0; c < chunks; c++) {
+      final int from = c * size / chunks;
+      final int to = (c + 1) * size / chunks;
+      tasks.add(new Callable<Object>() {
+
+
+        @Override
+        public Object call() {
+          for (int i = from; i < to; i++) {
+            Steward steward = stewards.get(i);
+            Trace.defer();
+            try {
+              if (Trace.isInfo()) {
+                Trace.info(" I.  Steward '%s' (%d)\n", steward.getName(), steward.getBalance());
+              }
+              proposals[i] = steward.proposeActions();
+            } finally {
+              messages[i] = Trace.collect();
+            }
+          }
+          return null;
+        }
+      });
+    }
+
+    Workers.runAll(tasks);
+
+    for (int i = 0; i < size; i++) {
+      Trace.replay(messages[i]);
+      @SuppressWarnings("unchecked")
+      List<FloodProtection> p = (List<FloodProtection>) proposals[i];
+      stewards.get(i).addPossibleActions(p);
+    }
   }
 
 
@@ -92,14 +152,32 @@ public class StewardScheduler {
    */
   @ScheduledMethod(start = 1, interval = 1, priority = 0)
   public void step() {
-    System.out.format("[%.0f] %s\n", RepastEssentials.GetTickCount(), getClass().getSimpleName());
-    for (Steward steward : stewards) {
-      System.out.format(" I.  Steward '%s' (%d)\n", steward.getName(), steward.getBalance());
-      steward.generatePossibleActions();
+    model.bind();
+    boolean info = Trace.isInfo();
+    if (info) {
+      Trace.info("[%.0f] %s\n", model.getTick(), getClass().getSimpleName());
+    }
+    if (model.getParameters().isParallelStewards() && stewards.size() > 1) {
+      generateParallel();
+    } else {
+      for (Steward steward : stewards) {
+        if (info) {
+          Trace.info(" I.  Steward '%s' (%d)\n", steward.getName(), steward.getBalance());
+        }
+        steward.generatePossibleActions();
+      }
     }
     for (Steward steward : stewards) {
-      System.out.format(" II. Steward '%s' (%d)\n", steward.getName(), steward.getBalance());
+      if (info) {
+        Trace.info(" II. Steward '%s' (%d)\n", steward.getName(), steward.getBalance());
+      }
       steward.chooseActions();
     }
+    model.getPropertyChanges().flush();
+    model.getRuleStatistics().flush();
+    if (model.getConvergence().ticked(stewards)) {
+      model.endRun();
+    }
+    Trace.flush();
   }
 }
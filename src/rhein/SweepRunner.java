@@ -0,0 +1,480 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+
+/**
+ * Runs the points of Repast batch sweep files side by side in one JVM, using
+ * the headless {@link Simulation}.
+ *
+ * Usage:
+ * <code>SweepRunner [-threads n] [-out directory] [-fork checkpoint] sweep.xml ...</code>
+ *
+ * The parameters of a sweep file are expanded into their grid: constants are
+ * the same for every point, <code>number</code> and <code>list</code>
+ * parameters take each of their values, the first parameter varying slowest.
+ * Every point is run <code>runs</code> times. The points of all the files are
+ * numbered from 1 in this order and run on a pool of threads, by default one
+ * per processor.
+ *
+ * All results go to one directory, by default <code>sweep</code>:
+ * <code>segments.txt</code> and <code>payments.txt</code> hold the data sets
+ * of {@link DataSets}, tagged with the run number, and <code>runs.txt</code>
+ * lists the parameters of every run finished. The data of a run is appended
+ * once it is done, followed by its line in <code>runs.txt</code>. Started
+ * again on the same directory, the runner skips the runs listed there and
+ * drops whatever data an interrupted run left behind. The logs a run is asked
+ * for, e.g. by <code>constructionLog</code>, go to files of its own, with the
+ * run number inserted before the extension. A run that throws an exception, a
+ * {@link StackOverflowError} or a {@link LinkageError} counts as failed and
+ * leaves no data; any other {@link VirtualMachineError}, e.g. running out of
+ * memory, is counted too but thrown on, as the JVM is in no state to go on.
+ *
+ * With <code>-fork</code>, every run goes on from the same {@link Checkpoint}
+ * with its own parameters instead of starting at tick 0, so the ticks the runs
+ * have in common are only simulated once. The random streams go on from the
+ * checkpoint too, so every point must have the seed of the checkpoint; a sweep
+ * with any other seed is rejected before it starts.
+ *
+ * @author mlunzena
+ *
+ */
+public class SweepRunner {
+
+
+  /**
+   * A point of the grid.
+   */
+  private static class Run {
+
+
+    int number;
+
+
+    Map<String, String> values;
+
+
+    String describe() {
+      StringBuilder s = new StringBuilder();
+      for (Map.Entry<String, String> entry : values.entrySet()) {
+        if (s.length() > 0) {
+          s.append(';');
+        }
+        s.append(entry.getKey()).append('=').append(entry.getValue());
+      }
+      return s.toString();
+    }
+  }
+
+
+  private static final String RUNS = "runs.txt";
+
+
+  private static final String SEGMENTS = "segments.txt";
+
+
+  private static final String PAYMENTS = "payments.txt";
+
+
+  /**
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    File dir = new File("sweep");
+    Checkpoint fork = null;
+    List<File> sweeps = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-out") && i + 1 < args.length) {
+        dir = new File(args[++i]);
+      } else if (args[i].equals("-fork") && i + 1 < args.length) {
+        fork = Checkpoint.load(new File(args[++i]));
+      } else {
+        sweeps.add(new File(args[i]));
+      }
+    }
+    if (sweeps.isEmpty()) {
+      System.err.println("usage: SweepRunner [-threads n] [-out directory] "
+          + "[-fork checkpoint] sweep.xml ...");
+      System.exit(1);
+    }
+
+    List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+    for (File sweep : sweeps) {
+      points.addAll(expand(sweep));
+    }
+
+    SweepRunner runner = new SweepRunner(dir);
+    runner.setFork(fork);
+    int failures = runner.run(points, threads);
+    System.exit(failures);
+  }
+
+
+  /**
+   * Expands a sweep file into its points.
+   *
+   * @param sweep
+   * @return the parameters of each run, in the order of the runs
+   * @throws Exception
+   */
+  public static List<Map<String, String>> expand(File sweep) throws Exception {
+
+    Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+        .parse(sweep).getDocumentElement();
+
+    List<String> names = new ArrayList<String>();
+    List<List<String>> values = new ArrayList<List<String>>();
+    collect(root, names, values);
+
+    int repeat = root.hasAttribute("runs") ? Integer.parseInt(root
+        .getAttribute("runs")) : 1;
+
+    List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+    int[] index = new int[names.size()];
+    while (true) {
+      Map<String, String> point = new LinkedHashMap<String, String>();
+      for (int i = 0; i < index.length; i++) {
+        point.put(names.get(i), values.get(i).get(index[i]));
+      }
+      for (int r = 0; r < repeat; r++) {
+        points.add(point);
+      }
+
+      // odometer, the last parameter varying fastest
+      int i = index.length - 1;
+      while (i >= 0 && ++index[i] == values.get(i).size()) {
+        index[i] = 0;
+        i--;
+      }
+      if (i < 0) {
+        return points;
+      }
+    }
+  }
+
+
+  /**
+   * Collects the parameters of a sweep, including nested ones.
+   */
+  private static void collect(Element element, List<String> names,
+      List<List<String>> values) {
+
+    for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+      if (!(n instanceof Element) || !n.getNodeName().equals("parameter")) {
+        continue;
+      }
+      Element parameter = (Element) n;
+      String name = parameter.getAttribute("name");
+      String type = parameter.getAttribute("type");
+
+      List<String> list = new ArrayList<String>();
+      if (type.equals("constant")) {
+        list.add(parameter.getAttribute("value"));
+      } else if (type.equals("number")) {
+        BigDecimal start = new BigDecimal(parameter.getAttribute("start"));
+        BigDecimal end = new BigDecimal(parameter.getAttribute("end"));
+        BigDecimal step = new BigDecimal(parameter.getAttribute("step"));
+        if (step.signum() <= 0) {
+          throw new IllegalArgumentException("step of " + name
+              + " must be positive");
+        }
+        for (BigDecimal v = start; v.compareTo(end) <= 0; v = v.add(step)) {
+          list.add(v.toPlainString());
+        }
+      } else if (type.equals("list")) {
+        for (String v : parameter.getAttribute("values").trim().split("\\s+")) {
+          list.add(v);
+        }
+      } else {
+        throw new IllegalArgumentException("cannot sweep " + name
+            + " of type " + type);
+      }
+      if (list.isEmpty()) {
+        throw new IllegalArgumentException("no values for " + name);
+      }
+
+      names.add(name);
+      values.add(list);
+      collect(parameter, names, values);
+    }
+  }
+
+
+  private static void truncate(File file, long length) throws IOException {
+    RandomAccessFile f = new RandomAccessFile(file, "rw");
+    try {
+      f.setLength(length);
+    } finally {
+      f.close();
+    }
+  }
+
+
+  private static void write(File file, String text) throws IOException {
+    FileWriter out = new FileWriter(file);
+    try {
+      out.write(text);
+    } finally {
+      out.close();
+    }
+  }
+
+
+  private final File dir;
+
+
+  private final AtomicInteger failures = new AtomicInteger();
+
+
+  private Checkpoint fork;
+
+
+  private PrintWriter payments;
+
+
+  private PrintWriter runs;
+
+
+  private PrintWriter segments;
+
+
+  /**
+   * @param dir
+   *          the directory of the results
+   */
+  public SweepRunner(File dir) {
+    this.dir = dir;
+  }
+
+
+  /**
+   * Runs all the points not run before and waits for them.
+   *
+   * @param points
+   * @param threads
+   * @return the number of runs that failed
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public int run(List<Map<String, String>> points, int threads)
+      throws IOException, InterruptedException {
+
+    List<Run> todo = new ArrayList<Run>();
+    Map<Integer, String> done = open();
+    for (int i = 0; i < points.size(); i++) {
+      Run run = new Run();
+      run.number = i + 1;
+      run.values = points.get(i);
+      String before = done.get(run.number);
+      if (before == null) {
+        todo.add(run);
+      } else if (!before.equals(run.describe())) {
+        throw new IllegalStateException("run " + run.number + " in " + dir
+            + " had other parameters: " + before);
+      }
+    }
+    if (fork != null) {
+      for (Run run : todo) {
+        if (RheinParameters.from(run.values).getRheinHelperSeed() != fork
+            .getSeed()) {
+          throw new IllegalArgumentException("run " + run.number + " ("
+              + run.describe() + ") has another seed than the checkpoint, "
+              + fork.getSeed());
+        }
+      }
+    }
+    System.out.format("%d runs, %d done before, %d threads\n", points.size(),
+        points.size() - todo.size(), threads);
+
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    for (final Run run : todo) {
+      pool.execute(new Runnable() {
+
+
+        @Override
+        public void run() {
+          execute(run);
+        }
+      });
+    }
+    pool.shutdown();
+    pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+    runs.close();
+    segments.close();
+    payments.close();
+
+    System.out.format("%d runs in %d s, %d failed\n", todo.size(), (System
+        .nanoTime() - start) / 1000000000L, failures.get());
+    return failures.get();
+  }
+
+
+  /**
+   * Lets every run go on from the given checkpoint.
+   *
+   * @param fork
+   *          the checkpoint, <code>null</code> to start at tick 0
+   */
+  public void setFork(Checkpoint fork) {
+    this.fork = fork;
+  }
+
+
+  /**
+   * Counts a run as failed.
+   */
+  private void fail(Run run, Throwable e) {
+    failures.incrementAndGet();
+    System.err.format("run %d (%s) failed: %s\n", run.number, run.describe(),
+        e);
+  }
+
+
+  /**
+   * Runs a point and appends its results.
+   */
+  private void execute(Run run) {
+
+    StringWriter segmentData = new StringWriter();
+    StringWriter paymentData = new StringWriter();
+    final PrintWriter segmentOut = new PrintWriter(segmentData);
+    final PrintWriter paymentOut = new PrintWriter(paymentData);
+    final int number = run.number;
+
+    // a trace of every run would be of little use
+    Map<String, String> values = new HashMap<String, String>(run.values);
+    if (!values.containsKey("traceLevel")) {
+      values.put("traceLevel", Trace.Level.OFF.name());
+    }
+    LogFiles.forRun(values, String.valueOf(number));
+
+    try {
+      RheinParameters p = RheinParameters.from(values);
+      Simulation simulation = fork == null ? new Simulation(p) : fork.fork(p);
+      simulation.addObserver(new Simulation.Observer() {
+
+
+        @Override
+        public void ticked(Simulation s) {
+          DataSets.writeSegments(segmentOut, number, s);
+          DataSets.writePayments(paymentOut, number, s);
+        }
+      });
+      simulation.run();
+    } catch (StackOverflowError e) {
+      fail(run, e);
+      return;
+    } catch (VirtualMachineError e) {
+      fail(run, e);
+      throw e;
+    } catch (LinkageError e) {
+      fail(run, e);
+      return;
+    } catch (Exception e) {
+      fail(run, e);
+      return;
+    } finally {
+      LogFiles.close(values);
+    }
+
+    segmentOut.flush();
+    paymentOut.flush();
+    synchronized (this) {
+      segments.write(segmentData.toString());
+      segments.flush();
+      payments.write(paymentData.toString());
+      payments.flush();
+      // the line that makes the run count as done, with the file lengths
+      runs.format("%d\t%d\t%d\t%s\n", number, new File(dir, SEGMENTS)
+          .length(), new File(dir, PAYMENTS).length(), run.describe());
+      runs.flush();
+    }
+  }
+
+
+  /**
+   * Opens the result files, cutting off what was written after the last run
+   * finished.
+   *
+   * @return the parameters of the runs done before by run number
+   */
+  private Map<Integer, String> open() throws IOException {
+
+    dir.mkdirs();
+    File runsFile = new File(dir, RUNS);
+    File segmentsFile = new File(dir, SEGMENTS);
+    File paymentsFile = new File(dir, PAYMENTS);
+
+    Map<Integer, String> done = new HashMap<Integer, String>();
+    long segmentsLength = -1;
+    long paymentsLength = -1;
+    long runsLength = 0;
+    if (runsFile.exists()) {
+      BufferedReader reader = new BufferedReader(new FileReader(runsFile));
+      try {
+        for (String line = reader.readLine(); line != null; line = reader
+            .readLine()) {
+          String[] fields = line.split("\t", 4);
+          if (fields.length < 4) {
+            // the last line was cut off
+            break;
+          }
+          done.put(Integer.valueOf(fields[0]), fields[3]);
+          segmentsLength = Long.parseLong(fields[1]);
+          paymentsLength = Long.parseLong(fields[2]);
+          runsLength += line.getBytes().length + 1;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    if (segmentsLength < 0) {
+      truncate(runsFile, 0);
+      write(segmentsFile, DataSets.SEGMENTS + "\n");
+      write(paymentsFile, DataSets.PAYMENTS + "\n");
+    } else {
+      truncate(runsFile, runsLength);
+      truncate(segmentsFile, segmentsLength);
+      truncate(paymentsFile, paymentsLength);
+    }
+
+    runs = new PrintWriter(new FileWriter(runsFile, true));
+    segments = new PrintWriter(new FileWriter(segmentsFile, true));
+    payments = new PrintWriter(new FileWriter(paymentsFile, true));
+    return done;
+  }
+}
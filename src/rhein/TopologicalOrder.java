@@ -0,0 +1,341 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Stack;
+import java.util.Vector;
+
+import repast.simphony.space.graph.Network;
+
+
+/**
+ * Keeps the segments of a river network in topological order while edges are
+ * added and removed.
+ *
+ * A full sort is only done on first use and after {@link #invalidate()}.
+ * Until the first use, edits are only noted, so a basin loaded edge by edge
+ * before the run starts is sorted once. Later single edge insertions are
+ * handled with the algorithm of Pearce and Kelly, which only
+ * reorders the segments between the two end points of the new edge that are
+ * actually affected. Removing an edge never invalidates a topological order.
+ *
+ * @author mlunzena
+ *
+ */
+public class TopologicalOrder {
+
+
+  /**
+   * Orders segments by position.
+   */
+  private final Comparator<AbstractSegment> byPosition = new Comparator<AbstractSegment>() {
+
+
+    @Override
+    public int compare(AbstractSegment o1, AbstractSegment o2) {
+      return position.get(o1) - position.get(o2);
+    }
+  };
+
+
+  /**
+   * Set whenever the order has to be rebuilt from scratch.
+   */
+  private boolean dirty = true;
+
+
+  /**
+   * The network to order.
+   */
+  private final Network<Object> net;
+
+
+  /**
+   * The segments in topological order.
+   */
+  private final ArrayList<AbstractSegment> order = new ArrayList<AbstractSegment>();
+
+
+  /**
+   * The position of each segment in {@link #order}.
+   */
+  private final IdentityHashMap<AbstractSegment, Integer> position = new IdentityHashMap<AbstractSegment, Integer>();
+
+
+  /**
+   * @param net
+   */
+  public TopologicalOrder(Network<Object> net) {
+    this.net = net;
+  }
+
+
+  /**
+   * Inserts the edge from <code>source</code> to <code>target</code> into the
+   * order. The edge must already be part of the network.
+   *
+   * @param source
+   * @param target
+   */
+  public void edgeAdded(AbstractSegment source, AbstractSegment target) {
+
+    if (dirty) {
+      return;
+    }
+
+    if (net.getOutDegree(source) > 1) {
+      throw new RuntimeException("more than one outflow..");
+    }
+
+    if (!position.containsKey(source)) {
+      append(source);
+    }
+    if (!position.containsKey(target)) {
+      append(target);
+    }
+
+    int lower = position.get(target);
+    int upper = position.get(source);
+    if (lower > upper) {
+      return;
+    }
+
+    // everything reachable from the target that is not behind the source
+    ArrayList<AbstractSegment> forward = new ArrayList<AbstractSegment>();
+    collect(target, true, lower, upper, source, forward);
+
+    // everything reaching the source that is not in front of the target
+    ArrayList<AbstractSegment> backward = new ArrayList<AbstractSegment>();
+    collect(source, false, lower, upper, null, backward);
+
+    reorder(backward, forward);
+  }
+
+
+  /**
+   * Notes the removal of the edge from <code>source</code> to
+   * <code>target</code>. The order stays valid, so there is nothing to do.
+   *
+   * @param source
+   * @param target
+   */
+  public void edgeRemoved(AbstractSegment source, AbstractSegment target) {
+  }
+
+
+  /**
+   * @return the segments in topological order
+   */
+  public List<AbstractSegment> getSegments() {
+    if (dirty) {
+      sort();
+    }
+    return Collections.unmodifiableList(order);
+  }
+
+
+  /**
+   * Forces a full rebuild on the next access.
+   */
+  public void invalidate() {
+    dirty = true;
+  }
+
+
+  /**
+   * Adds a segment without any edges at the end of the order.
+   *
+   * @param segment
+   */
+  public void segmentAdded(AbstractSegment segment) {
+    if (dirty) {
+      return;
+    }
+    if (!position.containsKey(segment)) {
+      append(segment);
+    }
+  }
+
+
+  /**
+   * Removes a segment from the order.
+   *
+   * @param segment
+   */
+  public void segmentRemoved(AbstractSegment segment) {
+    if (dirty) {
+      return;
+    }
+    Integer p = position.remove(segment);
+    if (p == null) {
+      return;
+    }
+    order.remove(p.intValue());
+    for (int i = p; i < order.size(); i++) {
+      position.put(order.get(i), i);
+    }
+  }
+
+
+  /**
+   * Rebuilds the order from scratch using Kahn's algorithm.
+   */
+  public void sort() {
+
+    HashMap<AbstractSegment, Integer> d = new HashMap<AbstractSegment, Integer>();
+    Stack<AbstractSegment> c = new Stack<AbstractSegment>();
+
+    for (AbstractSegment agent : filterSegments(net.getNodes())) {
+      if (net.getOutDegree(agent) > 1) {
+        throw new RuntimeException("more than one outflow..");
+      }
+      d.put(agent, net.getInDegree(agent));
+      if (net.getInDegree(agent) == 0) {
+        c.add(agent);
+      }
+    }
+
+    order.clear();
+    position.clear();
+
+    while (c.size() > 0) {
+      AbstractSegment i = c.pop();
+      append(i);
+      for (Object agent : net.getSuccessors(i)) {
+        Integer value = d.get(agent);
+        d.put((AbstractSegment) agent, --value);
+        if (value == 0) {
+          c.add((AbstractSegment) agent);
+        }
+      }
+    }
+
+    if (d.size() != order.size()) {
+      dirty = true;
+      throw new RuntimeException("there is a cycle");
+    }
+
+    dirty = false;
+  }
+
+
+  /**
+   * @param segment
+   */
+  private void append(AbstractSegment segment) {
+    position.put(segment, order.size());
+    order.add(segment);
+  }
+
+
+  /**
+   * Depth first search from <code>start</code> restricted to the positions
+   * <code>lower .. upper</code>.
+   *
+   * @param start
+   * @param forward
+   *          follow successors if true, predecessors otherwise
+   * @param lower
+   * @param upper
+   * @param stop
+   *          reaching this segment means the new edge closes a cycle
+   * @param visited
+   *          receives all the segments found
+   */
+  private void collect(AbstractSegment start, boolean forward, int lower,
+      int upper, AbstractSegment stop, List<AbstractSegment> visited) {
+
+    IdentityHashMap<AbstractSegment, Boolean> seen = new IdentityHashMap<AbstractSegment, Boolean>();
+    Stack<AbstractSegment> stack = new Stack<AbstractSegment>();
+
+    stack.push(start);
+    seen.put(start, Boolean.TRUE);
+
+    while (!stack.isEmpty()) {
+      AbstractSegment s = stack.pop();
+      visited.add(s);
+
+      for (Object o : forward ? net.getSuccessors(s) : net.getPredecessors(s)) {
+        if (o == stop) {
+          dirty = true;
+          throw new RuntimeException("there is a cycle");
+        }
+        Integer p = position.get(o);
+        if (p == null || p < lower || p > upper || seen.containsKey(o)) {
+          continue;
+        }
+        seen.put((AbstractSegment) o, Boolean.TRUE);
+        stack.push((AbstractSegment) o);
+      }
+    }
+  }
+
+
+  /**
+   * @param it
+   * @return the segments in <code>it</code> sorted by name
+   */
+  private Vector<AbstractSegment> filterSegments(Iterable<?> it) {
+    Vector<AbstractSegment> segments = new Vector<AbstractSegment>();
+    for (Object segment : it) {
+      if (segment instanceof AbstractSegment) {
+        segments.add((AbstractSegment) segment);
+      }
+    }
+
+    // sort them by name
+    Collections.sort(segments, new Comparator<AbstractSegment>() {
+
+
+      @Override
+      public int compare(AbstractSegment o1, AbstractSegment o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+    return segments;
+  }
+
+
+  /**
+   * Moves all the segments in <code>backward</code> in front of those in
+   * <code>forward</code>, reusing the positions both sets occupied.
+   *
+   * @param backward
+   * @param forward
+   */
+  private void reorder(ArrayList<AbstractSegment> backward,
+      ArrayList<AbstractSegment> forward) {
+
+    Collections.sort(backward, byPosition);
+    Collections.sort(forward, byPosition);
+
+    int[] slots = new int[backward.size() + forward.size()];
+    int k = 0;
+    for (AbstractSegment s : backward) {
+      slots[k++] = position.get(s);
+    }
+    for (AbstractSegment s : forward) {
+      slots[k++] = position.get(s);
+    }
+    Arrays.sort(slots);
+
+    k = 0;
+    for (AbstractSegment s : backward) {
+      order.set(slots[k], s);
+      position.put(s, slots[k++]);
+    }
+    for (AbstractSegment s : forward) {
+      order.set(slots[k], s);
+      position.put(s, slots[k++]);
+    }
+  }
+}
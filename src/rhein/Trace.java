@@ -0,0 +1,584 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Leveled trace output of the model.
+ *
+ * Messages are collected in a buffer and handed over to a writer thread in
+ * large chunks, so the simulation does not wait for the console or a file.
+ * Callers should check the level before building a message, e.g.
+ *
+ * <pre>
+ * if (Trace.isDebug()) {
+ *   Trace.debug(&quot; Segment '%s'\n&quot;, segment);
+ * }
+ * </pre>
+ *
+ * With {@link Level#OFF} nothing at all happens beyond that check, not even
+ * the formatting of the arguments.
+ *
+ * Every {@link RheinModel} has a level of its own: a message is written if the
+ * model of the current thread asks for its level. The output, though, is
+ * shared by all models. While no running model traces at all, the check only
+ * reads a field.
+ *
+ * In the {@link Format#BINARY} format the format strings are written once and
+ * each message only refers to it and carries its arguments, which saves the
+ * formatting. Such a file can be turned into text with {@link #main(String[])}.
+ *
+ * @author mlunzena
+ *
+ */
+public final class Trace {
+
+
+  /**
+   * The output formats.
+   */
+  public enum Format {
+    TEXT, BINARY
+  }
+
+
+  /**
+   * The levels, each including the ones before it.
+   */
+  public enum Level {
+    OFF, INFO, DEBUG
+  }
+
+
+  /**
+   * Messages held back by a thread, see {@link Trace#defer()}.
+   */
+  public static class Messages {
+
+
+    private final List<Object[]> messages = new ArrayList<Object[]>();
+  }
+
+
+  /**
+   * Size of a buffer at which it is handed over to the writer.
+   */
+  private static final int CHUNK = 32 * 1024;
+
+
+  private static final byte DEFINE = 'F';
+
+
+  private static final byte MESSAGE = 'M';
+
+
+  private static final ThreadLocal<Messages> deferred = new ThreadLocal<Messages>();
+
+
+  /**
+   * The highest level of any running model.
+   */
+  private static volatile int level = Level.DEBUG.ordinal();
+
+
+  private static Sink sink = new TextSink(System.out);
+
+
+  private static String target = Format.TEXT + ":";
+
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread("rhein-trace-close") {
+
+
+      @Override
+      public void run() {
+        close();
+      }
+    });
+  }
+
+
+  /**
+   * Switches to another level, format or file, if it differs from the current
+   * one. Everything written so far is flushed first.
+   *
+   * @param level
+   *          the highest level of any running model
+   * @param format
+   * @param file
+   *          name of the file to write to, the console if empty
+   */
+  public static synchronized void configure(Level level, Format format,
+      String file) {
+
+    Trace.level = level.ordinal();
+
+    String t = format + ":" + file;
+    if (t.equals(target) && sink.isAlive()) {
+      return;
+    }
+
+    // the current sink stays in place unless the new one can be opened
+    OutputStream out;
+    if (file.length() == 0) {
+      out = System.out;
+    } else {
+      try {
+        out = new FileOutputStream(file);
+      } catch (IOException e) {
+        throw new RuntimeException("cannot open trace file " + file, e);
+      }
+    }
+
+    close();
+    target = t;
+    sink = format == Format.BINARY ? new BinarySink(out) : new TextSink(out);
+  }
+
+
+  /**
+   * @return the messages held back by the current thread since
+   *         {@link #defer()}, which are written directly again from now on
+   */
+  public static Messages collect() {
+    Messages messages = deferred.get();
+    deferred.remove();
+    return messages;
+  }
+
+
+  /**
+   * @param format
+   * @param args
+   */
+  public static void debug(String format, Object... args) {
+    if (isDebug()) {
+      write(format, args);
+    }
+  }
+
+
+  /**
+   * Holds back the messages of the current thread until they are collected,
+   * so that threads working side by side can have their messages written in
+   * a fixed order.
+   */
+  public static void defer() {
+    deferred.set(new Messages());
+  }
+
+
+  /**
+   * Hands the buffered messages over to the writer without waiting for them
+   * to be written.
+   */
+  public static synchronized void flush() {
+    sink.handOver();
+  }
+
+
+  /**
+   * @param format
+   * @param args
+   */
+  public static void info(String format, Object... args) {
+    if (isInfo()) {
+      write(format, args);
+    }
+  }
+
+
+  /**
+   * @return whether debug messages of the model of the current thread are
+   *         written
+   */
+  public static boolean isDebug() {
+    return level >= 2 && RheinModel.traceLevel() >= 2;
+  }
+
+
+  /**
+   * @return whether info messages of the model of the current thread are
+   *         written
+   */
+  public static boolean isInfo() {
+    return level >= 1 && RheinModel.traceLevel() >= 1;
+  }
+
+
+  /**
+   * Prints a binary trace file as text.
+   *
+   * @param args
+   *          the name of the file
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    InputStream in = new FileInputStream(args[0]);
+    try {
+      decode(in, System.out);
+    } finally {
+      in.close();
+    }
+    System.out.flush();
+  }
+
+
+  /**
+   * Changes the level only, e.g. after the model tracing most ended.
+   *
+   * @param level
+   *          the highest level of any running model
+   */
+  public static void setLevel(Level level) {
+    Trace.level = level.ordinal();
+  }
+
+
+  /**
+   * Writes messages held back by some thread.
+   *
+   * @param messages
+   */
+  public static synchronized void replay(Messages messages) {
+    for (Object[] message : messages.messages) {
+      sink.write((String) message[0], (Object[]) message[1]);
+    }
+  }
+
+
+  /**
+   * Writes all the messages and waits for it.
+   */
+  private static synchronized void close() {
+    sink.close();
+  }
+
+
+  /**
+   * Reads messages in the binary format and formats them.
+   */
+  private static void decode(InputStream in, Appendable out)
+      throws IOException {
+
+    DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+    List<String> formats = new ArrayList<String>();
+    Formatter formatter = new Formatter(out);
+
+    while (true) {
+      int tag = data.read();
+      if (tag == -1) {
+        break;
+      }
+      if (tag == DEFINE) {
+        formats.add(data.readUTF());
+      } else if (tag == MESSAGE) {
+        String format = formats.get(data.readUnsignedShort());
+        Object[] args = new Object[data.readUnsignedByte()];
+        for (int i = 0; i < args.length; i++) {
+          args[i] = BinarySink.readValue(data);
+        }
+        formatter.format(format, args);
+      } else {
+        throw new IOException("not a trace file, unknown tag " + tag);
+      }
+    }
+    formatter.flush();
+  }
+
+
+  private static void write(String format, Object[] args) {
+
+    Messages held = deferred.get();
+    if (held == null) {
+      synchronized (Trace.class) {
+        sink.write(format, args);
+      }
+      return;
+    }
+
+    // the arguments may change until the messages are written
+    Object[] copy = new Object[args.length];
+    for (int i = 0; i < args.length; i++) {
+      Object arg = args[i];
+      copy[i] = arg == null || arg instanceof Number || arg instanceof Boolean
+          || arg instanceof Character ? arg : arg.toString();
+    }
+    held.messages.add(new Object[] { format, copy });
+  }
+
+
+  private Trace() {
+  }
+
+
+  /**
+   * Writes the format strings once and the arguments of each message in a
+   * compact binary form.
+   */
+  private static class BinarySink extends Sink {
+
+
+    static Object readValue(DataInputStream in) throws IOException {
+      int type = in.readUnsignedByte();
+      switch (type) {
+      case 'N':
+        return null;
+      case 'Z':
+        return in.readBoolean();
+      case 'I':
+        return in.readInt();
+      case 'J':
+        return in.readLong();
+      case 'D':
+        return in.readDouble();
+      case 'S':
+        return in.readUTF();
+      default:
+        throw new IOException("unknown value type " + type);
+      }
+    }
+
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+        CHUNK * 2);
+
+
+    private final DataOutputStream data = new DataOutputStream(buffer);
+
+
+    private final Map<String, Integer> formats = new HashMap<String, Integer>();
+
+
+    BinarySink(OutputStream out) {
+      super(out);
+    }
+
+
+    @Override
+    void handOver() {
+      if (buffer.size() > 0) {
+        handOver(buffer.toByteArray());
+        buffer.reset();
+      }
+    }
+
+
+    @Override
+    void write(String format, Object[] args) {
+      try {
+        Integer id = formats.get(format);
+        if (id == null) {
+          id = formats.size();
+          formats.put(format, id);
+          data.writeByte(DEFINE);
+          data.writeUTF(format);
+        }
+        data.writeByte(MESSAGE);
+        data.writeShort(id);
+        data.writeByte(args.length);
+        for (Object arg : args) {
+          writeValue(arg);
+        }
+      } catch (IOException e) {
+        // cannot happen with a byte array
+        throw new RuntimeException(e);
+      }
+      if (buffer.size() >= CHUNK) {
+        handOver();
+      }
+    }
+
+
+    private void writeValue(Object arg) throws IOException {
+      if (arg == null) {
+        data.writeByte('N');
+      } else if (arg instanceof Boolean) {
+        data.writeByte('Z');
+        data.writeBoolean((Boolean) arg);
+      } else if (arg instanceof Integer || arg instanceof Short
+          || arg instanceof Byte) {
+        data.writeByte('I');
+        data.writeInt(((Number) arg).intValue());
+      } else if (arg instanceof Long) {
+        data.writeByte('J');
+        data.writeLong((Long) arg);
+      } else if (arg instanceof Double || arg instanceof Float) {
+        data.writeByte('D');
+        data.writeDouble(((Number) arg).doubleValue());
+      } else {
+        // anything else may change later and has to be captured now
+        data.writeByte('S');
+        data.writeUTF(arg.toString());
+      }
+    }
+  }
+
+
+  /**
+   * Collects messages and hands them over to a thread writing them out.
+   */
+  private static abstract class Sink implements Runnable {
+
+
+    private final OutputStream out;
+
+
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(
+        64);
+
+
+    private final Thread writer;
+
+
+    Sink(OutputStream out) {
+      this.out = out instanceof PrintStream ? out : new BufferedOutputStream(
+          out, CHUNK);
+      writer = new Thread(this, "rhein-trace");
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+
+    /**
+     * Writes out everything and waits for it, unless the writer is gone.
+     */
+    void close() {
+      handOver();
+      CountDownLatch done = new CountDownLatch(1);
+      put(done);
+      try {
+        while (writer.isAlive() && !done.await(100, TimeUnit.MILLISECONDS)) {
+          // the writer may die before it gets to the latch
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+
+    /**
+     * Hands the current buffer over to the writer.
+     */
+    abstract void handOver();
+
+
+    /**
+     * @return whether the writer still writes
+     */
+    boolean isAlive() {
+      return writer.isAlive();
+    }
+
+
+    /**
+     * @param bytes
+     *          a full buffer
+     */
+    void handOver(byte[] bytes) {
+      put(bytes);
+    }
+
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          Object chunk = queue.take();
+          if (chunk instanceof byte[]) {
+            out.write((byte[]) chunk);
+          } else {
+            out.flush();
+            if (out != System.out) {
+              out.close();
+            }
+            ((CountDownLatch) chunk).countDown();
+            return;
+          }
+        } catch (InterruptedException e) {
+          return;
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+
+    /**
+     * Appends a message to the buffer.
+     */
+    abstract void write(String format, Object[] args);
+
+
+    private void put(Object chunk) {
+      try {
+        while (writer.isAlive()
+            && !queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+          // the writer may die while the queue is full
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+
+  /**
+   * Formats the messages as text.
+   */
+  private static class TextSink extends Sink {
+
+
+    private final StringBuilder buffer = new StringBuilder(CHUNK * 2);
+
+
+    private final Formatter formatter = new Formatter(buffer);
+
+
+    TextSink(OutputStream out) {
+      super(out);
+    }
+
+
+    @Override
+    void handOver() {
+      if (buffer.length() > 0) {
+        handOver(buffer.toString().getBytes());
+        buffer.setLength(0);
+      }
+    }
+
+
+    @Override
+    void write(String format, Object[] args) {
+      formatter.format(format, args);
+      if (buffer.length() >= CHUNK) {
+        handOver();
+      }
+    }
+  }
+}
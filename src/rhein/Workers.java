@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package rhein;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * A shared pool of daemon threads for the parallel parts of a tick.
+ *
+ * @author mlunzena
+ *
+ */
+public class Workers {
+
+
+  private static ExecutorService pool;
+
+
+  private static final int THREADS = Runtime.getRuntime()
+      .availableProcessors();
+
+
+  /**
+   * @return the number of worker threads
+   */
+  public static int getThreads() {
+    return THREADS;
+  }
+
+
+  /**
+   * Runs all the tasks on the pool and waits for them to finish. The tasks
+   * work for the {@link RheinModel} of the calling thread. The first exception
+   * thrown by a task is rethrown.
+   *
+   * @param tasks
+   */
+  public static void runAll(List<? extends Callable<Object>> tasks) {
+
+    if (tasks.size() == 1) {
+      call(tasks.get(0));
+      return;
+    }
+
+    final RheinModel model = RheinModel.current();
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (final Callable<Object> task : tasks) {
+      futures.add(getPool().submit(new Callable<Object>() {
+
+
+        @Override
+        public Object call() throws Exception {
+          model.bind();
+          try {
+            return task.call();
+          } finally {
+            RheinModel.unbind();
+          }
+        }
+      }));
+    }
+
+    try {
+      for (Future<Object> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+
+  private static void call(Callable<Object> task) {
+    try {
+      task.call();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+
+        private int count;
+
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "rhein-worker-" + count++);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return pool;
+  }
+}